@@ -0,0 +1,198 @@
+package com.matthewn.subwich;
+
+import android.os.OperationCanceledException;
+import android.os.Process;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs background work on separate lanes, each with its own thread priority and number of
+ * threads, so that user initiated work never waits behind a library scan. Work is submitted for
+ * an owner, usually an activity, and whatever has not started yet is canceled when the owner
+ * is destroyed, except writes to the usb device. Work that fails crashes the app like an
+ * uncaught exception would instead of failing silently.
+ */
+public class BackgroundExecutor {
+    /** Loads the user is waiting on, such as the episodes of a series */
+    public static final int LANE_LOADING = 0;
+    /** Scanning and indexing the library */
+    public static final int LANE_INDEXING = 1;
+    /** Writing subtitles to the usb device */
+    public static final int LANE_USB_WRITE = 2;
+    /** Scanning a single root of the library, a scan on the indexing lane waits for these */
+    public static final int LANE_ROOT_SCAN = 3;
+    /** Indexing the dialogue of the subtitles, never holds up a scan of the library */
+    public static final int LANE_DIALOGUE = 4;
+
+    private static final String[] LaneNames = {"loading", "indexing", "usb-write", "root-scan",
+            "dialogue"};
+    private static final int[] LanePriorities = {
+            Process.THREAD_PRIORITY_DEFAULT,
+            Process.THREAD_PRIORITY_BACKGROUND,
+            Process.THREAD_PRIORITY_DEFAULT,
+            Process.THREAD_PRIORITY_BACKGROUND,
+            Process.THREAD_PRIORITY_LOWEST};
+    private static final int[] LaneThreads = {2, 1, 1, 4, 1};
+    private static final long KeepAliveSeconds = 30;
+
+    private static BackgroundExecutor sInstance;
+
+    private final ThreadPoolExecutor[] mLanes = new ThreadPoolExecutor[LaneNames.length];
+    private final Map<Object, Set<Future<?>>> mOwnerTasks = new IdentityHashMap<>();
+
+    public static synchronized BackgroundExecutor get() {
+        if (sInstance == null) {
+            sInstance = new BackgroundExecutor();
+        }
+        return sInstance;
+    }
+
+    private BackgroundExecutor() {
+        for (int i = 0; i < mLanes.length; i++) {
+            mLanes[i] = new ThreadPoolExecutor(LaneThreads[i], LaneThreads[i], KeepAliveSeconds,
+                    TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new LaneThreadFactory(LaneNames[i], LanePriorities[i]));
+            mLanes[i].allowCoreThreadTimeOut(true);
+        }
+    }
+
+    /**
+     * Runs the work on a lane
+     * @param owner the work is canceled when {@link #cancelAll(Object)} is called with it, unless
+     *              it writes to the usb device
+     * @param lane one of the LANE constants
+     * @param runnable the work
+     * @return future of the work
+     */
+    public Future<?> submit(final Object owner, int lane, Runnable runnable) {
+        FutureTask<Void> task = new FutureTask<Void>(runnable, null) {
+            @Override
+            protected void done() {
+                synchronized (mOwnerTasks) {
+                    Set<Future<?>> tasks = mOwnerTasks.get(owner);
+                    if (tasks != null) {
+                        tasks.remove(this);
+                        if (tasks.isEmpty()) {
+                            mOwnerTasks.remove(owner);
+                        }
+                    }
+                }
+                if (!isCancelled()) {
+                    rethrowFailure(this);
+                }
+            }
+        };
+
+        // A write the user asked for is finished even when its activity is recreated, the user
+        // is told about each one once it is done
+        if (lane != LANE_USB_WRITE) {
+            synchronized (mOwnerTasks) {
+                Set<Future<?>> tasks = mOwnerTasks.get(owner);
+                if (tasks == null) {
+                    tasks = Collections.newSetFromMap(new IdentityHashMap<Future<?>, Boolean>());
+                    mOwnerTasks.put(owner, tasks);
+                }
+                tasks.add(task);
+            }
+        }
+        mLanes[lane].execute(task);
+        return task;
+    }
+
+    /**
+     * @param owner owner of the work
+     * @param lane one of the LANE constants
+     * @return an executor that submits its work to the lane for the owner
+     */
+    public Executor executorFor(final Object owner, final int lane) {
+        return new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                submit(owner, lane, runnable);
+            }
+        };
+    }
+
+    /**
+     * Cancels all the work of the owner that has not started yet. Work that is already running
+     * is left to finish, and writes to the usb device are never canceled.
+     * @param owner owner of the work
+     */
+    public void cancelAll(Object owner) {
+        List<Future<?>> tasks;
+        synchronized (mOwnerTasks) {
+            Set<Future<?>> ownerTasks = mOwnerTasks.remove(owner);
+            if (ownerTasks == null) {
+                return;
+            }
+            tasks = new ArrayList<>(ownerTasks);
+        }
+        for (Future<?> task : tasks) {
+            task.cancel(false);
+        }
+        for (ThreadPoolExecutor lane : mLanes) {
+            lane.purge();
+        }
+    }
+
+    /**
+     * Throws the failure of finished work again on its lane thread, which crashes the app the
+     * way work that failed on the executor of AsyncTask did. Scans that were canceled are not
+     * failures.
+     */
+    private static void rethrowFailure(Future<?> task) {
+        try {
+            task.get();
+        } catch (InterruptedException | CancellationException ignored) {
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof OperationCanceledException) {
+                return;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private static class LaneThreadFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger(1);
+        private final String mName;
+        private final int mPriority;
+
+        LaneThreadFactory(String name, int priority) {
+            mName = name;
+            mPriority = priority;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(mPriority);
+                    runnable.run();
+                }
+            }, "subwich-" + mName + "-" + mCount.getAndIncrement());
+        }
+    }
+}
@@ -3,26 +3,20 @@ package com.matthewn.subwich;
 import android.Manifest;
 import android.app.Activity;
 import android.app.AlertDialog;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
-import android.preference.PreferenceManager;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
 import android.support.v7.app.AppCompatActivity;
 import android.util.Log;
 import android.view.Menu;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.Executor;
 
 public abstract class BaseActivity extends AppCompatActivity {
     protected static final String TAG = "BaseActivity";
@@ -38,17 +32,13 @@ public abstract class BaseActivity extends AppCompatActivity {
 
     private static boolean mStartedForResult = false;
 
-    private SharedPreferences mPrefs;
-    private String mLastWrittenKey;
-    private final Map<String, Long> mVideoLastWrittenCache = new HashMap<>();
-    private final Set<String> mUpdatedNames = new HashSet<>();
+    private LastUsedTimes mLastUsedTimes;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(getLayoutId());
-        mLastWrittenKey = getString(R.string.settings_subtitles_last_written);
-        mPrefs = PreferenceManager.getDefaultSharedPreferences(this);
+        mLastUsedTimes = SubwichApplication.get(this).getLastUsedTimes();
 
         // Check permissions
         if (!hasStoragePermissions()) {
@@ -71,10 +61,33 @@ public abstract class BaseActivity extends AppCompatActivity {
                 requestStoragePermissions(this);
             }
         }
-        loadVideoTimestamps();
         setResult(Activity.RESULT_OK);
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        BackgroundExecutor.get().cancelAll(this);
+    }
+
+    /**
+     * Runs work in the background that is canceled if it has not started when this activity is
+     * destroyed, writes to the usb device always run
+     * @param lane one of the lanes of {@link BackgroundExecutor}
+     * @param runnable the work
+     */
+    protected void runInBackground(int lane, Runnable runnable) {
+        BackgroundExecutor.get().submit(this, lane, runnable);
+    }
+
+    /**
+     * @param lane one of the lanes of {@link BackgroundExecutor}
+     * @return executor for work that is canceled like {@link #runInBackground}
+     */
+    protected Executor getBackgroundExecutor(int lane) {
+        return BackgroundExecutor.get().executorFor(this, lane);
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         if (getMenuId() == 0) {
@@ -101,83 +114,22 @@ public abstract class BaseActivity extends AppCompatActivity {
         mStartedForResult = false;
     }
 
-    @Override
-    public void onActivityReenter(int resultCode, Intent data) {
-        super.onActivityReenter(resultCode, data);
-        loadVideoTimestamps();
-    }
-
+    /**
+     * @return last time a subtitle of the series was written or 0 if it never was
+     */
     protected long getTimestamp(VideoEntry entry) {
-        synchronized (mVideoLastWrittenCache) {
-            Long l = mVideoLastWrittenCache.get(entry.getName());
-            if (l == null) {
-                return 0;
-            }
-            mUpdatedNames.add(entry.getName());
-            return l;
-        }
+        return mLastUsedTimes.get(entry);
     }
 
-    protected void updateVideoTimeStamp(VideoEntry entry) {
-        if (entry != null) {
-            entry.updateUsed();
-        }
-        Set<String> data = new HashSet<>();
-        synchronized (mVideoLastWrittenCache) {
-            if (entry != null) {
-                mVideoLastWrittenCache.put(entry.getName(), entry.getLastUsed());
-            }
-            for (String key : mVideoLastWrittenCache.keySet()) {
-                long timestamp = mVideoLastWrittenCache.get(key);
-                if (timestamp > 0) {
-                    data.add(key + ":" + timestamp);
-                }
-            }
-        }
-        mPrefs.edit().putStringSet(mLastWrittenKey, data).apply();
-    }
-
-    private void loadVideoTimestamps() {
-        // Get the last written timestamps of each video
-        synchronized (mVideoLastWrittenCache) {
-            Set<String> data = mPrefs.getStringSet(mLastWrittenKey, null);
-            if (data != null) {
-                for (String pair : data) {
-                    String[] d = pair.split(":");
-                    if (d.length == 2) {
-                        try {
-                            mVideoLastWrittenCache.put(d[0], Long.parseLong(d[1]));
-                        } catch (NumberFormatException e) {
-                            e.printStackTrace();
-                            Log.w(TAG, "Ignored parsing timestamp invalid data: " + pair);
-                        }
-                    } else{
-                        Log.w(TAG, "Ignored getting time stamp for this corrupted entry: " + pair);
-                    }
-                }
-            }
-        }
-    }
-
-    protected void removeUnusedTimestamps() {
-        if (!mUpdatedNames.isEmpty()) {
-            // Remove all the non-used cache timestamps
-            synchronized (mVideoLastWrittenCache) {
-                List<String> toRemove = new ArrayList<>();
-                for (String name: mVideoLastWrittenCache.keySet()) {
-                    if (!mUpdatedNames.contains(name)) {
-                        toRemove.add(name);
-                    }
-                }
-                for (String name: toRemove) {
-                    mVideoLastWrittenCache.remove(name);
-                }
-                if (!toRemove.isEmpty()) {
-                    updateVideoTimeStamp(null);
-                }
-            }
-            mUpdatedNames.clear();
-        }
+    /**
+     * Saves the time a subtitle of the series was written in the times of the application, so a
+     * write that finishes after its activity is gone is still kept. Must be called on the main
+     * thread.
+     * @param context any context, only the application is used
+     * @param entry the series whose subtitle was written
+     */
+    protected static void saveVideoTimeStamp(Context context, VideoEntry entry) {
+        SubwichApplication.get(context).getLastUsedTimes().save(entry);
     }
 
     protected boolean hasStartedForResult() {
@@ -0,0 +1,72 @@
+package com.matthewn.subwich;
+
+import android.graphics.Bitmap;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Bitmaps kept after decoding so the next decode can reuse their memory with inBitmap instead of
+ * allocating. Only bitmaps no view can be showing may be put back, so the pool only holds the
+ * sampled covers decoded while making thumbnails. A bitmap taken from the pool belongs to the
+ * caller, so thumbnails decoded into one can be shown.
+ */
+class BitmapPool {
+    private final int mMaxSize;
+    private final LinkedList<Bitmap> mBitmaps = new LinkedList<>();
+    private int mSize;
+
+    /**
+     * @param maxSize bytes the pooled bitmaps can use
+     */
+    BitmapPool(int maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * @param byteCount bytes the decoded bitmap needs
+     * @return the smallest pooled bitmap large enough, or null if there is none
+     */
+    synchronized Bitmap get(int byteCount) {
+        Bitmap best = null;
+        for (Bitmap bitmap : mBitmaps) {
+            if (bitmap.getAllocationByteCount() >= byteCount && (best == null
+                    || bitmap.getAllocationByteCount() < best.getAllocationByteCount())) {
+                best = bitmap;
+            }
+        }
+        if (best != null) {
+            mBitmaps.remove(best);
+            mSize -= best.getAllocationByteCount();
+        }
+        return best;
+    }
+
+    /**
+     * Keeps the bitmap for reuse, the oldest bitmaps are recycled when the pool is full
+     */
+    synchronized void put(Bitmap bitmap) {
+        int byteCount = bitmap.getAllocationByteCount();
+        if (!bitmap.isMutable() || bitmap.isRecycled() || byteCount > mMaxSize) {
+            bitmap.recycle();
+            return;
+        }
+        mBitmaps.addLast(bitmap);
+        mSize += byteCount;
+        Iterator<Bitmap> it = mBitmaps.iterator();
+        while (mSize > mMaxSize && it.hasNext()) {
+            Bitmap oldest = it.next();
+            it.remove();
+            mSize -= oldest.getAllocationByteCount();
+            oldest.recycle();
+        }
+    }
+
+    synchronized void clear() {
+        for (Bitmap bitmap : mBitmaps) {
+            bitmap.recycle();
+        }
+        mBitmaps.clear();
+        mSize = 0;
+    }
+}
@@ -0,0 +1,90 @@
+package com.matthewn.subwich;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import com.squareup.picasso.Cache;
+
+import java.util.Map;
+
+/**
+ * Memory cache of the covers Picasso shows, sized from the memory class of the device so low
+ * memory phones keep fewer covers. It shrinks or empties itself when the system asks the app to
+ * trim its memory.
+ */
+public class CoverMemoryCache implements Cache {
+    private static final int MemoryClassFraction = 8;
+
+    private final LruCache<String, Bitmap> mCache;
+
+    public CoverMemoryCache(Context context) {
+        mCache = new LruCache<String, Bitmap>(getMemoryLimit(context, MemoryClassFraction)) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+    }
+
+    /**
+     * @param fraction part of the memory class to use
+     * @return bytes of memory that can be used
+     */
+    static int getMemoryLimit(Context context, int fraction) {
+        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        return am.getMemoryClass() * 1024 * 1024 / fraction;
+    }
+
+    @Override
+    public Bitmap get(String key) {
+        return mCache.get(key);
+    }
+
+    @Override
+    public void set(String key, Bitmap bitmap) {
+        if (key == null || bitmap == null) {
+            throw new NullPointerException("key == null || bitmap == null");
+        }
+        mCache.put(key, bitmap);
+    }
+
+    @Override
+    public int size() {
+        return mCache.size();
+    }
+
+    @Override
+    public int maxSize() {
+        return mCache.maxSize();
+    }
+
+    @Override
+    public void clear() {
+        mCache.evictAll();
+    }
+
+    @Override
+    public void clearKeyUri(String keyPrefix) {
+        for (Map.Entry<String, Bitmap> entry : mCache.snapshot().entrySet()) {
+            if (entry.getKey().startsWith(keyPrefix)) {
+                mCache.remove(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Keeps half the covers while the app is running low and none once it is in the background,
+     * where a smaller app is less likely to be killed
+     * @param level level passed to {@link ComponentCallbacks2#onTrimMemory}
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            mCache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            mCache.trimToSize(mCache.maxSize() / 2);
+        }
+    }
+}
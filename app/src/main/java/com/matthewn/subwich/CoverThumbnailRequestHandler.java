@@ -0,0 +1,287 @@
+package com.matthewn.subwich;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.net.Uri;
+import android.provider.DocumentsContract;
+import android.util.Log;
+
+import com.squareup.picasso.Picasso;
+import com.squareup.picasso.Request;
+import com.squareup.picasso.RequestHandler;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Loads covers as thumbnails the size of a library row. The first time a cover is shown it is
+ * decoded at a reduced sample size, cropped to the row and saved as a small jpeg in the cache
+ * folder of the app, keyed by the cover path, its modified time and size and the size of the
+ * thumbnail. After that only the thumbnail is decoded, and a cover that changed gets a new key.
+ * Decodes reuse the memory of the sampled covers through a {@link BitmapPool}, and the least
+ * recently shown thumbnails are removed when there are too many.
+ */
+public class CoverThumbnailRequestHandler extends RequestHandler {
+    private static final String TAG = "CoverThumbnailRequestHandler";
+    private static final String Scheme = "subwich-thumbnail";
+    private static final String CacheFolder = "covers";
+    private static final String SourceParam = "source";
+    private static final String WidthParam = "width";
+    private static final String HeightParam = "height";
+    private static final int JpegQuality = 85;
+    private static final int MaxThumbnails = 1000;
+    private static final String[] DocumentProjection = {
+            DocumentsContract.Document.COLUMN_LAST_MODIFIED,
+            DocumentsContract.Document.COLUMN_SIZE};
+
+    private final ContentResolver mResolver;
+    private final File mCacheDir;
+    private final BitmapPool mPool;
+
+    /**
+     * @param pool pool the sampled covers go back to and that thumbnails are decoded from
+     */
+    public CoverThumbnailRequestHandler(Context context, BitmapPool pool) {
+        mResolver = context.getContentResolver();
+        mCacheDir = new File(context.getCacheDir(), CacheFolder);
+        mPool = pool;
+    }
+
+    /**
+     * @param cover uri of the full size cover
+     * @param width width of the thumbnail in pixels
+     * @param height height of the thumbnail in pixels
+     * @return uri Picasso loads the thumbnail with
+     */
+    public static Uri thumbnailUri(Uri cover, int width, int height) {
+        return new Uri.Builder()
+                .scheme(Scheme)
+                .authority(CacheFolder)
+                .appendQueryParameter(SourceParam, cover.toString())
+                .appendQueryParameter(WidthParam, String.valueOf(width))
+                .appendQueryParameter(HeightParam, String.valueOf(height))
+                .build();
+    }
+
+    @Override
+    public boolean canHandleRequest(Request data) {
+        return Scheme.equals(data.uri.getScheme());
+    }
+
+    @Override
+    public Result load(Request request, int networkPolicy) throws IOException {
+        Uri cover = Uri.parse(request.uri.getQueryParameter(SourceParam));
+        int width = Integer.parseInt(request.uri.getQueryParameter(WidthParam));
+        int height = Integer.parseInt(request.uri.getQueryParameter(HeightParam));
+
+        File thumbnail = new File(mCacheDir, getKey(cover, width, height) + ".jpg");
+        if (thumbnail.exists()) {
+            // Mark it as used so the least recently shown thumbnails are trimmed first
+            thumbnail.setLastModified(System.currentTimeMillis());
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            Bitmap bitmap = decodePooled(Uri.fromFile(thumbnail), options, width * height * 4);
+            if (bitmap != null) {
+                return new Result(bitmap, Picasso.LoadedFrom.DISK);
+            }
+        }
+        Bitmap bitmap = createThumbnail(cover, width, height);
+        save(bitmap, thumbnail);
+        return new Result(bitmap, Picasso.LoadedFrom.DISK);
+    }
+
+    /**
+     * Decodes the cover at the smallest sample size that still fills the thumbnail and crops
+     * its center like the row does. The decoded cover is never shown, so it reuses a pooled
+     * bitmap and goes back to the pool once the thumbnail is drawn.
+     */
+    private Bitmap createThumbnail(Uri cover, int width, int height) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decode(cover, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("Unable to read the size of cover " + cover);
+        }
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= width
+                && options.outHeight / (sampleSize * 2) >= height) {
+            sampleSize *= 2;
+        }
+        int sampledWidth = (options.outWidth + sampleSize - 1) / sampleSize;
+        int sampledHeight = (options.outHeight + sampleSize - 1) / sampleSize;
+        options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        Bitmap sampled = decodePooled(cover, options, sampledWidth * sampledHeight * 4);
+        if (sampled == null) {
+            throw new IOException("Unable to decode cover " + cover);
+        }
+
+        // Crop the largest area with the shape of the thumbnail from the center
+        float scale = Math.min((float) sampled.getWidth() / width,
+                (float) sampled.getHeight() / height);
+        int cropWidth = Math.round(width * scale);
+        int cropHeight = Math.round(height * scale);
+        int left = (sampled.getWidth() - cropWidth) / 2;
+        int top = (sampled.getHeight() - cropHeight) / 2;
+        Bitmap thumbnail = mPool.get(width * height * 4);
+        if (thumbnail != null) {
+            thumbnail.reconfigure(width, height, Bitmap.Config.ARGB_8888);
+            thumbnail.eraseColor(Color.TRANSPARENT);
+        } else {
+            thumbnail = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        }
+        new Canvas(thumbnail).drawBitmap(sampled,
+                new Rect(left, top, left + cropWidth, top + cropHeight),
+                new Rect(0, 0, width, height), new Paint(Paint.FILTER_BITMAP_FLAG));
+        mPool.put(sampled);
+        return thumbnail;
+    }
+
+    /**
+     * Decodes into a pooled bitmap large enough for the image when there is one
+     * @param byteCount bytes the decoded image needs
+     * @return the bitmap or null if the image cannot be decoded
+     */
+    private Bitmap decodePooled(Uri uri, BitmapFactory.Options options, int byteCount)
+            throws IOException {
+        options.inMutable = true;
+        options.inBitmap = mPool.get(byteCount);
+        Bitmap bitmap;
+        try {
+            bitmap = decode(uri, options);
+        } catch (IllegalArgumentException e) {
+            if (options.inBitmap == null) {
+                throw e;
+            }
+            // The pooled bitmap cannot hold this image after all
+            mPool.put(options.inBitmap);
+            options.inBitmap = null;
+            bitmap = decode(uri, options);
+        }
+        if (bitmap == null && options.inBitmap != null) {
+            mPool.put(options.inBitmap);
+        }
+        return bitmap;
+    }
+
+    private Bitmap decode(Uri cover, BitmapFactory.Options options) throws IOException {
+        InputStream in = mResolver.openInputStream(cover);
+        if (in == null) {
+            throw new IOException("Unable to open cover " + cover);
+        }
+        try {
+            return BitmapFactory.decodeStream(in, null, options);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Writes the thumbnail to a temporary file and swaps it in, the least recently shown
+     * thumbnails are removed when there are too many. A thumbnail that cannot be saved is still
+     * shown.
+     */
+    private void save(Bitmap bitmap, File thumbnail) {
+        if (!mCacheDir.exists() && !mCacheDir.mkdirs()) {
+            Log.w(TAG, "Unable to create the thumbnail cache");
+            return;
+        }
+        File tmpFile = new File(thumbnail.getPath() + ".tmp");
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(tmpFile);
+            bitmap.compress(Bitmap.CompressFormat.JPEG, JpegQuality, out);
+            out.close();
+            out = null;
+            if (!tmpFile.renameTo(thumbnail)) {
+                Log.w(TAG, "Unable to save thumbnail " + thumbnail.getName());
+                tmpFile.delete();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to save thumbnail " + thumbnail.getName() + ": "
+                    + e.getMessage());
+            tmpFile.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        trim();
+    }
+
+    private void trim() {
+        File[] files = mCacheDir.listFiles();
+        if (files == null || files.length <= MaxThumbnails) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+        for (int i = 0; i < files.length - MaxThumbnails; i++) {
+            files[i].delete();
+        }
+    }
+
+    /**
+     * @return hash of the cover path, modified time and size, and the thumbnail size
+     */
+    private String getKey(Uri cover, int width, int height) {
+        long modified = 0;
+        long size = 0;
+        if (ContentResolver.SCHEME_FILE.equals(cover.getScheme())) {
+            File file = new File(cover.getPath());
+            modified = file.lastModified();
+            size = file.length();
+        } else {
+            Cursor cursor = null;
+            try {
+                cursor = mResolver.query(cover, DocumentProjection, null, null, null);
+                if (cursor != null && cursor.moveToFirst()) {
+                    modified = cursor.getLong(0);
+                    size = cursor.getLong(1);
+                }
+            } catch (SecurityException | IllegalArgumentException e) {
+                Log.w(TAG, "Unable to query cover " + cover + ": " + e.getMessage());
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+        }
+        String key = cover + "|" + modified + "|" + size + "|" + width + "x" + height;
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16))
+                        .append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(key.hashCode());
+        }
+    }
+}
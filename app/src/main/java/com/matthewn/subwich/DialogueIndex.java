@@ -0,0 +1,388 @@
+package com.matthewn.subwich;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.CancellationSignal;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Full text index of the dialogue of every subtitle in the library, kept in a database so a
+ * search never opens the subtitles themselves. Each cue is stored with the series, episode and
+ * time it is said at. A subtitle is only read again when its modified time changes. After a scan
+ * the whole library is checked, a series that changed while watched is updated on its own.
+ */
+public class DialogueIndex extends SQLiteOpenHelper {
+    private static final String TAG = "DialogueIndex";
+    private static final String DatabaseName = "dialogue.db";
+    private static final int DatabaseVersion = 1;
+    private static final int MaxHits = 200;
+
+    public static class Hit {
+        public final String seriesName;
+        public final String source;
+        public final int season;
+        public final String episodeLabel;
+        public final long start;
+        public final String text;
+
+        Hit(String seriesName, String source, int season, String episodeLabel, long start,
+            String text) {
+            this.seriesName = seriesName;
+            this.source = source;
+            this.season = season;
+            this.episodeLabel = episodeLabel;
+            this.start = start;
+            this.text = text;
+        }
+    }
+
+    private static class IndexedFile {
+        final long id;
+        final long modified;
+        final String series;
+
+        IndexedFile(long id, long modified, String series) {
+            this.id = id;
+            this.modified = modified;
+            this.series = series;
+        }
+    }
+
+    public DialogueIndex(Context context) {
+        super(context.getApplicationContext(), DatabaseName, null, DatabaseVersion);
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        // Searches can run while the library is being indexed
+        db.enableWriteAheadLogging();
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE files (_id INTEGER PRIMARY KEY, path TEXT NOT NULL UNIQUE, "
+                + "modified INTEGER NOT NULL, series TEXT NOT NULL, source TEXT NOT NULL, "
+                + "season INTEGER NOT NULL, number INTEGER NOT NULL, label TEXT NOT NULL)");
+        db.execSQL("CREATE TABLE cue_times (docid INTEGER PRIMARY KEY, "
+                + "file_id INTEGER NOT NULL, start INTEGER NOT NULL)");
+        db.execSQL("CREATE INDEX cue_times_file ON cue_times (file_id)");
+        db.execSQL("CREATE VIRTUAL TABLE cues USING fts4(text)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // The index is rebuilt from the subtitles
+        db.execSQL("DROP TABLE IF EXISTS files");
+        db.execSQL("DROP TABLE IF EXISTS cue_times");
+        db.execSQL("DROP TABLE IF EXISTS cues");
+        onCreate(db);
+    }
+
+    /**
+     * Indexes the subtitles that are new or changed and removes the ones that are no longer in
+     * the library. Each subtitle is indexed in its own transaction so a canceled update keeps
+     * what was indexed. Must not be called from the main thread.
+     * @param entries all the series of the library
+     * @param complete whether the entries are the whole library, otherwise only the removed
+     *                 subtitles of these series are removed
+     * @param resolver resolver to open the subtitles with
+     * @param signal cancels the update between subtitles
+     */
+    public void update(List<VideoEntry> entries, boolean complete, ContentResolver resolver,
+                       CancellationSignal signal) {
+        SQLiteDatabase db = getWritableDatabase();
+        Map<String, IndexedFile> indexed = readIndexedFiles(db, null, null);
+        SQLiteStatement insertCue = db.compileStatement("INSERT INTO cues (text) VALUES (?)");
+        SQLiteStatement insertTime = db.compileStatement(
+                "INSERT INTO cue_times (docid, file_id, start) VALUES (?, ?, ?)");
+        int updated = 0;
+        Set<String> unresolved = new HashSet<>();
+        try {
+            for (VideoEntry entry : entries) {
+                if (entry.getEpisodeSubList() == null) {
+                    // Not listed yet, keep what was indexed for it
+                    unresolved.add(entry.getName());
+                    continue;
+                }
+                updated += indexEpisodes(db, insertCue, insertTime, indexed, entry, resolver,
+                        signal);
+            }
+
+            // Whatever is left was removed from the library, or from the series that were
+            // listed when a root could not be read
+            if (!complete) {
+                Set<String> listed = new HashSet<>();
+                for (VideoEntry entry : entries) {
+                    listed.add(entry.getName());
+                }
+                Iterator<IndexedFile> it = indexed.values().iterator();
+                while (it.hasNext()) {
+                    if (!listed.contains(it.next().series)) {
+                        it.remove();
+                    }
+                }
+            }
+            deleteFiles(db, indexed.values(), unresolved, signal);
+        } finally {
+            insertCue.close();
+            insertTime.close();
+        }
+        Log.v(TAG, "Indexed " + updated + " subtitles, removed " + indexed.size());
+    }
+
+    /**
+     * Indexes the subtitles of one series that are new or changed and removes the ones it no
+     * longer has, without checking the rest of the library. Must not be called from the main
+     * thread.
+     * @param entry the series that was added or listed again
+     * @param resolver resolver to open the subtitles with
+     */
+    public void updateSeries(VideoEntry entry, ContentResolver resolver) {
+        if (entry.getEpisodeSubList() == null) {
+            return;
+        }
+        SQLiteDatabase db = getWritableDatabase();
+        Map<String, IndexedFile> indexed = readIndexedFiles(db, "series = ?",
+                new String[]{entry.getName()});
+        SQLiteStatement insertCue = db.compileStatement("INSERT INTO cues (text) VALUES (?)");
+        SQLiteStatement insertTime = db.compileStatement(
+                "INSERT INTO cue_times (docid, file_id, start) VALUES (?, ?, ?)");
+        CancellationSignal signal = new CancellationSignal();
+        try {
+            int updated = indexEpisodes(db, insertCue, insertTime, indexed, entry, resolver,
+                    signal);
+            deleteFiles(db, indexed.values(), Collections.<String>emptySet(), signal);
+            Log.v(TAG, "Indexed " + updated + " subtitles of " + entry.getName() + ", removed "
+                    + indexed.size());
+        } finally {
+            insertCue.close();
+            insertTime.close();
+        }
+    }
+
+    /**
+     * Removes the subtitles of a series that is no longer in the library. Must not be called
+     * from the main thread.
+     * @param seriesName name of the series
+     */
+    public void removeSeries(String seriesName) {
+        SQLiteDatabase db = getWritableDatabase();
+        Map<String, IndexedFile> indexed = readIndexedFiles(db, "series = ?",
+                new String[]{seriesName});
+        deleteFiles(db, indexed.values(), Collections.<String>emptySet(),
+                new CancellationSignal());
+    }
+
+    /**
+     * Indexes the subtitles of the series that are new or changed
+     * @param indexed the indexed files keyed by path, the files of the series are taken out
+     * @return number of subtitles indexed
+     */
+    private static int indexEpisodes(SQLiteDatabase db, SQLiteStatement insertCue,
+                                     SQLiteStatement insertTime, Map<String, IndexedFile> indexed,
+                                     VideoEntry entry, ContentResolver resolver,
+                                     CancellationSignal signal) {
+        int updated = 0;
+        for (Episode episode : entry.getEpisodeSubList()) {
+            signal.throwIfCanceled();
+            String path = entry.getPath() + "/" + episode.getSource();
+            long modified = getModified(entry, episode);
+            IndexedFile file = indexed.remove(path);
+            if (file != null && file.modified == modified
+                    && file.series.equals(entry.getName())) {
+                continue;
+            }
+            if (indexFile(db, insertCue, insertTime, file, path, modified, entry, episode,
+                    resolver)) {
+                updated++;
+            }
+        }
+        return updated;
+    }
+
+    /**
+     * Deletes each file in its own transaction
+     * @param keptSeries series whose files are kept
+     */
+    private static void deleteFiles(SQLiteDatabase db, Collection<IndexedFile> files,
+                                    Set<String> keptSeries, CancellationSignal signal) {
+        for (IndexedFile file : files) {
+            signal.throwIfCanceled();
+            if (keptSeries.contains(file.series)) {
+                continue;
+            }
+            db.beginTransaction();
+            try {
+                deleteFile(db, file.id);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+    }
+
+    /**
+     * Finds the cues with the words of the query in that order, the last word can be the start
+     * of a word. Only the database is read.
+     * @param query words said in the episode
+     * @return the cues found ordered by series, episode and time
+     */
+    public List<Hit> search(String query) {
+        List<Hit> hits = new ArrayList<>();
+        String match = toMatchQuery(query);
+        if (match == null) {
+            return hits;
+        }
+        Cursor cursor = getReadableDatabase().rawQuery("SELECT f.series, f.source, f.season, "
+                + "f.label, t.start, cues.text FROM cues "
+                + "JOIN cue_times t ON t.docid = cues.docid "
+                + "JOIN files f ON f._id = t.file_id "
+                + "WHERE cues MATCH ? ORDER BY f.series, f.season, f.number, t.start "
+                + "LIMIT " + MaxHits, new String[]{match});
+        try {
+            while (cursor.moveToNext()) {
+                hits.add(new Hit(cursor.getString(0), cursor.getString(1), cursor.getInt(2),
+                        cursor.getString(3), cursor.getLong(4), cursor.getString(5)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return hits;
+    }
+
+    /**
+     * @param selection where clause of the files to read, null for all of them
+     * @return the indexed files keyed by path
+     */
+    private static Map<String, IndexedFile> readIndexedFiles(SQLiteDatabase db, String selection,
+                                                             String[] selectionArgs) {
+        Map<String, IndexedFile> files = new HashMap<>();
+        Cursor cursor = db.rawQuery("SELECT path, _id, modified, series FROM files"
+                + (selection != null ? " WHERE " + selection : ""), selectionArgs);
+        try {
+            while (cursor.moveToNext()) {
+                files.put(cursor.getString(0), new IndexedFile(cursor.getLong(1),
+                        cursor.getLong(2), cursor.getString(3)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return files;
+    }
+
+    /**
+     * Replaces the cues of a subtitle, streaming them from the file. The old cues are kept if
+     * the subtitle cannot be read.
+     * @return whether the subtitle was indexed
+     */
+    private static boolean indexFile(SQLiteDatabase db, SQLiteStatement insertCue,
+                                     SQLiteStatement insertTime, IndexedFile old, String path,
+                                     long modified, VideoEntry entry, Episode episode,
+                                     ContentResolver resolver) {
+        SrtReader reader = null;
+        db.beginTransaction();
+        try {
+            if (old != null) {
+                deleteFile(db, old.id);
+            }
+            ContentValues values = new ContentValues();
+            values.put("path", path);
+            values.put("modified", modified);
+            values.put("series", entry.getName());
+            values.put("source", episode.getSource());
+            values.put("season", episode.getSeason());
+            values.put("number", episode.getNumber());
+            values.put("label", episode.getLabel());
+            long fileId = db.insertOrThrow("files", null, values);
+
+            reader = new SrtReader(entry.openEpisode(resolver, episode));
+            while (reader.next()) {
+                insertCue.bindString(1, reader.getText());
+                insertTime.bindLong(1, insertCue.executeInsert());
+                insertTime.bindLong(2, fileId);
+                insertTime.bindLong(3, reader.getStart());
+                insertTime.executeInsert();
+            }
+            db.setTransactionSuccessful();
+            return true;
+        } catch (IOException | SecurityException e) {
+            Log.w(TAG, "Unable to index " + path + ": " + e.getMessage());
+            return false;
+        } finally {
+            db.endTransaction();
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private static void deleteFile(SQLiteDatabase db, long id) {
+        String[] args = {String.valueOf(id)};
+        db.execSQL("DELETE FROM cues WHERE docid IN "
+                + "(SELECT docid FROM cue_times WHERE file_id = ?)", args);
+        db.execSQL("DELETE FROM cue_times WHERE file_id = ?", args);
+        db.execSQL("DELETE FROM files WHERE _id = ?", args);
+    }
+
+    /**
+     * @return modified time of the subtitle, or of its archive when it is in one. Documents use
+     *         the time listed with their folder, or the time of the folder when the provider
+     *         has none.
+     */
+    private static long getModified(VideoEntry entry, Episode episode) {
+        if (entry.isDocument()) {
+            return episode.getModified() > 0 ? episode.getModified() : entry.getModified();
+        }
+        String source = episode.getSource();
+        if (episode.isArchived()) {
+            source = source.substring(0, source.indexOf('/'));
+        }
+        return new File(entry.getPath(), source).lastModified();
+    }
+
+    /**
+     * Builds a phrase query from the letters and digits of the query so characters that have a
+     * meaning to the full text search are never passed on
+     * @return the match query or null if there are no words
+     */
+    private static String toMatchQuery(String query) {
+        StringBuilder match = new StringBuilder("\"");
+        boolean inWord = false;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (!inWord && match.length() > 1) {
+                    match.append(' ');
+                }
+                match.append(c);
+                inWord = true;
+            } else {
+                inWord = false;
+            }
+        }
+        if (match.length() == 1) {
+            return null;
+        }
+        return match.append("*\"").toString();
+    }
+}
@@ -0,0 +1,173 @@
+package com.matthewn.subwich;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.DocumentsContract;
+import android.provider.DocumentsContract.Document;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the library straight from a document tree uri, used for sd cards and usb-otg volumes
+ * that cannot be read as files. Each folder is listed with one query for the children with only
+ * the columns that are needed, instead of one query per child like DocumentFile does.
+ */
+public class DocumentLibrarySource extends LibrarySource {
+    private static final String TAG = "DocumentLibrarySource";
+    private static final String[] ChildProjection = {
+            Document.COLUMN_DOCUMENT_ID,
+            Document.COLUMN_DISPLAY_NAME,
+            Document.COLUMN_MIME_TYPE,
+            Document.COLUMN_LAST_MODIFIED};
+    private static final String[] DocumentProjection = {
+            Document.COLUMN_DISPLAY_NAME,
+            Document.COLUMN_LAST_MODIFIED};
+
+    private final ContentResolver mResolver;
+    private final Uri mRootUri;
+
+    public DocumentLibrarySource(ContentResolver resolver, String rootUri) {
+        mResolver = resolver;
+        mRootUri = Uri.parse(rootUri);
+    }
+
+    @Override
+    public String getRootPath() {
+        return mRootUri.toString();
+    }
+
+    /**
+     * Folders are listed through the tree of the root, so they share its tree document id
+     */
+    @Override
+    public boolean contains(String folderPath) {
+        if (!folderPath.startsWith(ContentResolver.SCHEME_CONTENT + "://")) {
+            return false;
+        }
+        try {
+            return DocumentsContract.getTreeDocumentId(Uri.parse(folderPath)).equals(
+                    DocumentsContract.getTreeDocumentId(mRootUri));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * The name is taken from the document id, which is the path for the external storage
+     * provider, so it can be shown without querying the provider on the main thread.
+     */
+    @Override
+    public String getRootName() {
+        String documentId = DocumentsContract.getDocumentId(mRootUri);
+        return documentId.substring(Math.max(documentId.lastIndexOf('/'),
+                documentId.lastIndexOf(':')) + 1);
+    }
+
+    /**
+     * Document ids of the external storage provider start with the volume, such as 1234-5678:
+     * for an sd card
+     */
+    @Override
+    public String getVolumeId() {
+        String treeId = DocumentsContract.getTreeDocumentId(mRootUri);
+        int separator = treeId.indexOf(':');
+        return mRootUri.getAuthority() + "/"
+                + (separator >= 0 ? treeId.substring(0, separator) : treeId);
+    }
+
+    @Override
+    public boolean isReadable() {
+        return getModified(mRootUri.toString()) >= 0;
+    }
+
+    @Override
+    public List<Folder> listFolders() {
+        Cursor cursor = queryChildren(mRootUri);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            List<Folder> folders = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                if (Document.MIME_TYPE_DIR.equals(cursor.getString(2))) {
+                    Uri folderUri = DocumentsContract.buildDocumentUriUsingTree(mRootUri,
+                            cursor.getString(0));
+                    folders.add(new Folder(folderUri.toString(), cursor.getString(1),
+                            cursor.getLong(3)));
+                }
+            }
+            return folders;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return modified time of the document, 0 if the provider does not know it or -1 if the
+     *         document cannot be read
+     */
+    @Override
+    public long getModified(String folderPath) {
+        Cursor cursor = null;
+        try {
+            cursor = mResolver.query(Uri.parse(folderPath), DocumentProjection, null, null, null);
+            if (cursor != null && cursor.moveToFirst()) {
+                return cursor.isNull(1) ? 0 : cursor.getLong(1);
+            }
+        } catch (SecurityException | IllegalArgumentException e) {
+            Log.w(TAG, "Unable to query document: " + e.getMessage());
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void reload(VideoEntry entry, long modified) {
+        Uri folderUri = Uri.parse(entry.getPath());
+        if (modified <= 0) {
+            modified = getModified(entry.getPath());
+        }
+        Cursor cursor = queryChildren(folderUri);
+        if (cursor == null) {
+            return;
+        }
+        Map<String, String> documentIds = new HashMap<>();
+        Map<String, Long> modifiedTimes = new HashMap<>();
+        try {
+            while (cursor.moveToNext()) {
+                if (!Document.MIME_TYPE_DIR.equals(cursor.getString(2))) {
+                    documentIds.put(cursor.getString(1), cursor.getString(0));
+                    if (!cursor.isNull(3)) {
+                        modifiedTimes.put(cursor.getString(1), cursor.getLong(3));
+                    }
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        String coverName = VideoEntry.findCoverName(documentIds.keySet());
+        String coverPath = coverName != null ? DocumentsContract.buildDocumentUriUsingTree(
+                folderUri, documentIds.get(coverName)).toString() : null;
+        entry.setData(coverPath, VideoEntry.parseEpisodes(documentIds, modifiedTimes),
+                modified);
+    }
+
+    private Cursor queryChildren(Uri folderUri) {
+        Uri childrenUri = DocumentsContract.buildChildDocumentsUriUsingTree(folderUri,
+                DocumentsContract.getDocumentId(folderUri));
+        try {
+            return mResolver.query(childrenUri, ChildProjection, null, null, null);
+        } catch (SecurityException | IllegalArgumentException e) {
+            Log.w(TAG, "Unable to list folder " + folderUri + ": " + e.getMessage());
+            return null;
+        }
+    }
+}
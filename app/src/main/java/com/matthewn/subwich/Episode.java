@@ -0,0 +1,200 @@
+package com.matthewn.subwich;
+
+import android.os.Parcel;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Subtitle of one episode of a series. Besides the episode number it has the season when the
+ * file name has one, the part after the decimal point of specials such as 12.5 and the last
+ * episode of double episodes such as 01-02.
+ */
+public class Episode implements Comparable<Episode> {
+    private final int mSeason;
+    private final int mNumber;
+    private final int mSub;
+    private final int mEndNumber;
+    private final String mSource;
+    private final String mDocumentId;
+    private final long mModified;
+
+    /**
+     * @param season season or 0 if the name has none
+     * @param number episode number
+     * @param sub part after the decimal point in hundredths such as 50 for 12.5 and 5 for 12.05,
+     *            or 0
+     * @param endNumber last episode of a double episode, otherwise the same as the number
+     * @param source file name of the subtitle in the series folder, or the archive name and the
+     *               path inside the archive separated by a slash
+     */
+    public Episode(int season, int number, int sub, int endNumber, String source) {
+        this(season, number, sub, endNumber, source, null);
+    }
+
+    /**
+     * @param documentId document id of the subtitle when the series is in a document tree, whose
+     *                   provider may not derive ids from file names
+     */
+    public Episode(int season, int number, int sub, int endNumber, String source,
+                   String documentId) {
+        this(season, number, sub, endNumber, source, documentId, 0);
+    }
+
+    /**
+     * @param modified modified time of the subtitle document as listed with its folder
+     */
+    public Episode(int season, int number, int sub, int endNumber, String source,
+                   String documentId, long modified) {
+        mSeason = season;
+        mNumber = number;
+        mSub = sub;
+        mEndNumber = endNumber;
+        mSource = source;
+        mDocumentId = documentId;
+        mModified = modified;
+    }
+
+    Episode(Parcel p) {
+        this(p.readInt(), p.readInt(), p.readInt(), p.readInt(), p.readString(), p.readString(),
+                p.readLong());
+    }
+
+    Episode(DataInputStream in) throws IOException {
+        this(in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readUTF(),
+                in.readBoolean() ? in.readUTF() : null, in.readLong());
+    }
+
+    public int getSeason() {
+        return mSeason;
+    }
+
+    public int getNumber() {
+        return mNumber;
+    }
+
+    public int getSub() {
+        return mSub;
+    }
+
+    public int getEndNumber() {
+        return mEndNumber;
+    }
+
+    public String getSource() {
+        return mSource;
+    }
+
+    /**
+     * @return document id of the subtitle or null if it is a file or inside an archive
+     */
+    public String getDocumentId() {
+        return mDocumentId;
+    }
+
+    /**
+     * @return modified time of the subtitle document, or 0 if it is a file whose time is read
+     *         from the file itself
+     */
+    public long getModified() {
+        return mModified;
+    }
+
+    /**
+     * @return whether the subtitle is inside a zip archive instead of a loose file
+     */
+    public boolean isArchived() {
+        return mSource.indexOf('/') >= 0;
+    }
+
+    /**
+     * @return the part after the decimal point as it is written such as 5 for 12.5 and 05 for
+     *         12.05, or an empty string if there is none
+     */
+    public String getSubLabel() {
+        if (mSub <= 0) {
+            return "";
+        }
+        if (mSub % 10 == 0) {
+            return String.valueOf(mSub / 10);
+        }
+        return mSub < 10 ? "0" + mSub : String.valueOf(mSub);
+    }
+
+    /**
+     * @return the episode as shown to the user such as 3, 12.5 or 1-2
+     */
+    public String getLabel() {
+        StringBuilder label = new StringBuilder().append(mNumber);
+        if (mSub > 0) {
+            label.append('.').append(getSubLabel());
+        }
+        if (mEndNumber > mNumber) {
+            label.append('-').append(mEndNumber);
+        }
+        return label.toString();
+    }
+
+    void writeTo(Parcel dest) {
+        dest.writeInt(mSeason);
+        dest.writeInt(mNumber);
+        dest.writeInt(mSub);
+        dest.writeInt(mEndNumber);
+        dest.writeString(mSource);
+        dest.writeString(mDocumentId);
+        dest.writeLong(mModified);
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(mSeason);
+        out.writeInt(mNumber);
+        out.writeInt(mSub);
+        out.writeInt(mEndNumber);
+        out.writeUTF(mSource);
+        out.writeBoolean(mDocumentId != null);
+        if (mDocumentId != null) {
+            out.writeUTF(mDocumentId);
+        }
+        out.writeLong(mModified);
+    }
+
+    /**
+     * Orders by season, number and then specials, two files of the same episode compare equal
+     */
+    @Override
+    public int compareTo(Episode other) {
+        if (mSeason != other.mSeason) {
+            return mSeason < other.mSeason ? -1 : 1;
+        }
+        if (mNumber != other.mNumber) {
+            return mNumber < other.mNumber ? -1 : 1;
+        }
+        if (mSub != other.mSub) {
+            return mSub < other.mSub ? -1 : 1;
+        }
+        if (mEndNumber != other.mEndNumber) {
+            return mEndNumber < other.mEndNumber ? -1 : 1;
+        }
+        return 0;
+    }
+
+    /**
+     * The same file of the same episode, a subtitle document that was rewritten in place is not
+     * equal to how it was listed before
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Episode)) {
+            return false;
+        }
+        Episode other = (Episode) o;
+        return compareTo(other) == 0 && mSource.equals(other.mSource)
+                && mModified == other.mModified;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((mSeason * 31 + mNumber) * 31 + mSub) * 31 + mSource.hashCode();
+    }
+}
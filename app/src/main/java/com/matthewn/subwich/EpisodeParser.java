@@ -0,0 +1,273 @@
+package com.matthewn.subwich;
+
+/**
+ * Finds the episode in a subtitle file name by walking its characters, without regular
+ * expressions, substrings or exceptions so that names without an episode cost nothing. Names
+ * that are only the episode such as 3, 03v2, 12.5, 01-02 and numbers of any length such as
+ * 12345 are recognized, as well as S01E03, S01 E03, E03 and Ep 3 anywhere in the name and a
+ * number after a dash such as Show Name - 07. A parser is reused for all the names of a folder
+ * and must only be used by one thread.
+ */
+class EpisodeParser {
+    private static final int MaxDigits = 4;
+    private static final int MaxSubDigits = 2;
+
+    private int mSeason;
+    private int mNumber;
+    private int mSub;
+    private int mEndNumber;
+    private int mValue;
+    private int mStart;
+
+    /**
+     * @param name the file name
+     * @param end index where the name ends, before the extension
+     * @param source source of the episode if one is found
+     * @return the episode or null if the name has none
+     */
+    Episode parse(CharSequence name, int end, String source) {
+        return parse(name, end, source, null);
+    }
+
+    /**
+     * @param documentId document id of the subtitle in a document tree
+     */
+    Episode parse(CharSequence name, int end, String source, String documentId) {
+        return parse(name, end, source, documentId, 0);
+    }
+
+    /**
+     * @param modified modified time of the subtitle document
+     */
+    Episode parse(CharSequence name, int end, String source, String documentId, long modified) {
+        if (!find(name, end)) {
+            return null;
+        }
+        return new Episode(mSeason, mNumber, mSub, mEndNumber, source, documentId, modified);
+    }
+
+    /**
+     * @return index where the episode found by the last parse starts, the title of the series
+     *         comes before it
+     */
+    int getStart() {
+        return mStart;
+    }
+
+    /**
+     * Finds the season in the name of a folder or an archive, such as Season 2 or Show S02
+     * @param name the name
+     * @param end index where the name ends, before any extension
+     * @return the season or 0 if the name has none
+     */
+    int parseSeason(CharSequence name, int end) {
+        for (int i = 0; i < end; i++) {
+            char c = name.charAt(i);
+            if ((c != 'S' && c != 's') || (i > 0 && Character.isLetter(name.charAt(i - 1)))) {
+                continue;
+            }
+            int j = skipWord(name, i + 1, end, "eason");
+            if (j > i + 1) {
+                while (j < end && isSeparator(name.charAt(j))) {
+                    j++;
+                }
+            }
+            int k = readDigits(name, j, end, MaxDigits);
+            if (k > j && isWordEnd(name, k, end)) {
+                return mValue;
+            }
+        }
+        return 0;
+    }
+
+    private boolean find(CharSequence name, int end) {
+        mSeason = 0;
+        mStart = 0;
+
+        // The whole name is the episode
+        if (readEpisode(name, 0, end) == end || readNumber(name, end)) {
+            return true;
+        }
+
+        // Otherwise look for S01E03, E03 or Ep 3 at the start of a word
+        for (int i = 0; i < end; i++) {
+            if (i > 0 && Character.isLetter(name.charAt(i - 1))) {
+                continue;
+            }
+            char c = name.charAt(i);
+            if (c == 'S' || c == 's') {
+                int j = readDigits(name, i + 1, end, MaxDigits);
+                int season = mValue;
+                if (j > i + 1) {
+                    // The episode may be a separate word such as S01 E07
+                    int e = j;
+                    while (e < end && isSeparator(name.charAt(e))) {
+                        e++;
+                    }
+                    if (e > j && e < end && isEpisodeLetter(name.charAt(e))
+                            && !isWordEnd(name, e + 1, end)) {
+                        j = e;
+                    }
+                }
+                if (j > i + 1 && j < end && isEpisodeLetter(name.charAt(j))) {
+                    int k = readEpisode(name, j + 1, end);
+                    if (k > 0 && isWordEnd(name, k, end)) {
+                        mSeason = season;
+                        mStart = i;
+                        return true;
+                    }
+                }
+            } else if (isEpisodeLetter(c)) {
+                int j = i + 1;
+                if (j < end && (name.charAt(j) == 'p' || name.charAt(j) == 'P')) {
+                    j = skipWord(name, j + 1, end, "isode");
+                }
+                while (j < end && isSeparator(name.charAt(j))) {
+                    j++;
+                }
+                int k = readEpisode(name, j, end);
+                if (k > 0 && isWordEnd(name, k, end)) {
+                    mStart = i;
+                    return true;
+                }
+            }
+        }
+
+        // Otherwise look for a number after a dash between separators such as Show Name - 07
+        for (int i = 1; i + 1 < end; i++) {
+            if (name.charAt(i) != '-' || !isSeparator(name.charAt(i - 1))) {
+                continue;
+            }
+            int j = i + 1;
+            while (j < end && isSeparator(name.charAt(j))) {
+                j++;
+            }
+            if (j > i + 1) {
+                int k = readEpisode(name, j, end);
+                if (k > 0 && isWordEnd(name, k, end)) {
+                    mStart = i;
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads an episode number with an optional decimal part, version and end of a range
+     * @return the index after the episode or -1 if there is no number at the start
+     */
+    private int readEpisode(CharSequence name, int start, int end) {
+        int i = readDigits(name, start, end, MaxDigits);
+        if (i == start) {
+            return -1;
+        }
+        mNumber = mValue;
+        mSub = 0;
+        mEndNumber = mNumber;
+
+        // Specials such as 12.5, but not the 720 of E03.720p. The decimal part is kept in
+        // hundredths so 12.5 and 12.05 are different episodes.
+        if (i + 1 < end && name.charAt(i) == '.') {
+            int j = readDigits(name, i + 1, end, MaxSubDigits);
+            if (j > i + 1 && isWordEnd(name, j, end)) {
+                mSub = j - i - 1 < MaxSubDigits ? mValue * 10 : mValue;
+                i = j;
+            }
+        }
+
+        // Versions such as 03v2 are the same episode
+        if (i + 1 < end && (name.charAt(i) == 'v' || name.charAt(i) == 'V')) {
+            int j = readDigits(name, i + 1, end, MaxDigits);
+            if (j > i + 1) {
+                i = j;
+            }
+        }
+
+        // Double episodes such as 01-02 or S01E01-E02
+        if (i + 1 < end && name.charAt(i) == '-') {
+            int j = i + 1;
+            if (isEpisodeLetter(name.charAt(j))) {
+                j++;
+            }
+            int k = readDigits(name, j, end, MaxDigits);
+            if (k > j && mValue > mNumber) {
+                mEndNumber = mValue;
+                i = k;
+            } else if (k > j && start == 0 && k == end) {
+                // A range that does not go up such as 02-01 is only the first episode
+                i = k;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * Reads a name that is only a number longer than the other forms allow, such as 12345,
+     * like names were parsed before episodes had seasons
+     * @return whether the whole name is a number that fits an int
+     */
+    private boolean readNumber(CharSequence name, int end) {
+        if (end == 0) {
+            return false;
+        }
+        long value = 0;
+        for (int i = 0; i < end; i++) {
+            char c = name.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+            value = value * 10 + (c - '0');
+            if (value > Integer.MAX_VALUE) {
+                return false;
+            }
+        }
+        mNumber = (int) value;
+        mSub = 0;
+        mEndNumber = mNumber;
+        return true;
+    }
+
+    /**
+     * Reads up to the maximum number of digits into mValue
+     * @return the index after the digits, the same as start if there are none
+     */
+    private int readDigits(CharSequence name, int start, int end, int maxDigits) {
+        int value = 0;
+        int i = start;
+        while (i < end && i - start < maxDigits) {
+            char c = name.charAt(i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            value = value * 10 + (c - '0');
+            i++;
+        }
+        mValue = value;
+        return i;
+    }
+
+    private static int skipWord(CharSequence name, int start, int end, String word) {
+        if (end - start < word.length()) {
+            return start;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            if (Character.toLowerCase(name.charAt(start + i)) != word.charAt(i)) {
+                return start;
+            }
+        }
+        return start + word.length();
+    }
+
+    private static boolean isEpisodeLetter(char c) {
+        return c == 'E' || c == 'e';
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == ' ' || c == '.' || c == '_';
+    }
+
+    private static boolean isWordEnd(CharSequence name, int index, int end) {
+        return index >= end || !Character.isLetterOrDigit(name.charAt(index));
+    }
+}
@@ -0,0 +1,44 @@
+package com.matthewn.subwich;
+
+import android.content.res.Resources;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An episode with the label its row shows, labels are formatted once when the episodes are
+ * loaded instead of on each bind
+ */
+public class EpisodeRow {
+    public final Episode episode;
+    public final String label;
+
+    private EpisodeRow(Episode episode, String label) {
+        this.episode = episode;
+        this.label = label;
+    }
+
+    /**
+     * @param res resources to format the labels with
+     * @param episodes episodes of a series, may be null
+     * @return a row for each episode
+     */
+    public static List<EpisodeRow> createAll(Resources res, Episode[] episodes) {
+        List<EpisodeRow> rows = new ArrayList<>(episodes != null ? episodes.length : 0);
+        if (episodes == null) {
+            return rows;
+        }
+        if (episodes.length == 1) {
+            rows.add(new EpisodeRow(episodes[0], res.getString(R.string.label_single_episode)));
+            return rows;
+        }
+        for (Episode episode : episodes) {
+            String label = episode.getSeason() > 0
+                    ? res.getString(R.string.label_season_episode, episode.getSeason(),
+                            episode.getLabel())
+                    : res.getString(R.string.label_episode, episode.getLabel());
+            rows.add(new EpisodeRow(episode, label));
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,162 @@
+package com.matthewn.subwich;
+
+import android.os.CancellationSignal;
+import android.system.ErrnoException;
+import android.system.Os;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads the library from a subtitles root folder on the file system. Nested folders such as
+ * Series/Season 1 are scanned up to a maximum depth, any folder with subtitles becomes a series
+ * titled with the names of its parents.
+ */
+public class FileLibrarySource extends LibrarySource {
+    /** Deepest level of folders read when nested folders are scanned, 1 only reads the root */
+    public static final int NestedMaxDepth = 3;
+    private static final String TitleSeparator = " - ";
+
+    private final File mRoot;
+    private final int mMaxDepth;
+
+    private static final FileFilter FolderFilter = new FileFilter() {
+        @Override
+        public boolean accept(File file) {
+            return file.isDirectory();
+        }
+    };
+
+    public FileLibrarySource(String rootPath) {
+        this(rootPath, 1);
+    }
+
+    /**
+     * @param rootPath absolute path of the root folder
+     * @param maxDepth deepest level of folders to read, 1 for only the folders inside the root
+     */
+    public FileLibrarySource(String rootPath, int maxDepth) {
+        mRoot = new File(rootPath);
+        mMaxDepth = maxDepth;
+    }
+
+    @Override
+    public String getRootPath() {
+        return mRoot.getAbsolutePath();
+    }
+
+    @Override
+    public String getRootName() {
+        return mRoot.getName();
+    }
+
+    /**
+     * @return deepest level of folders that is read, 1 for only the folders inside the root
+     */
+    public int getMaxDepth() {
+        return mMaxDepth;
+    }
+
+    /**
+     * @param rootPath absolute path of the root folder
+     * @param folderPath absolute path of a folder inside the root
+     * @return title of the folder, nested folders are titled with the names of their parents
+     *         like the scan titles them
+     */
+    static String titleOf(String rootPath, String folderPath) {
+        return folderPath.substring(rootPath.length() + 1).replace("/", TitleSeparator);
+    }
+
+    /**
+     * Folders on the same file system have the same device id, a root that cannot be read is a
+     * volume of its own
+     */
+    @Override
+    public String getVolumeId() {
+        try {
+            return "dev:" + Os.stat(mRoot.getAbsolutePath()).st_dev;
+        } catch (ErrnoException e) {
+            return mRoot.getAbsolutePath();
+        }
+    }
+
+    @Override
+    public boolean isReadable() {
+        return mRoot.exists() && mRoot.isDirectory() && mRoot.canRead();
+    }
+
+    @Override
+    public List<Folder> listFolders() {
+        File[] files = mRoot.listFiles(FolderFilter);
+        if (files == null) {
+            return null;
+        }
+        List<Folder> folders = new ArrayList<>(files.length);
+        for (File file : files) {
+            folders.add(new Folder(file.getAbsolutePath(), file.getName(), file.lastModified()));
+        }
+        return folders;
+    }
+
+    @Override
+    public List<Folder> listSubfolders(List<Folder> folders, CancellationSignal signal) {
+        if (folders.isEmpty() || folders.get(0).depth >= mMaxDepth) {
+            return Collections.emptyList();
+        }
+        return LibraryIndex.getScanPool().invoke(new FolderWalkTask(this,
+                folders.toArray(new Folder[folders.size()]), signal));
+    }
+
+    /**
+     * @param parent folder to list
+     * @return the folders directly inside the parent, empty if it cannot be read
+     */
+    List<Folder> listChildren(Folder parent) {
+        File[] files = new File(parent.path).listFiles(FolderFilter);
+        if (files == null) {
+            return new ArrayList<>();
+        }
+        List<Folder> folders = new ArrayList<>(files.length);
+        for (File file : files) {
+            folders.add(new Folder(file.getAbsolutePath(),
+                    parent.name + TitleSeparator + file.getName(), file.lastModified(),
+                    parent.depth + 1));
+        }
+        return folders;
+    }
+
+    /**
+     * Every folder is a series when nested folders are not scanned. Otherwise only the names in
+     * the folder are read, without the attributes of each file, to find a subtitle or an archive.
+     */
+    @Override
+    public boolean mayHaveSubtitles(Folder folder) {
+        if (mMaxDepth <= 1) {
+            return true;
+        }
+        String[] names = new File(folder.path).list();
+        if (names == null) {
+            return false;
+        }
+        for (String name : names) {
+            String lowerName = name.toLowerCase();
+            if (lowerName.endsWith(".srt") || lowerName.endsWith(".zip")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public long getModified(String folderPath) {
+        return new File(folderPath).lastModified();
+    }
+
+    @Override
+    public void reload(VideoEntry entry, long modified) {
+        entry.reloadData();
+    }
+}
@@ -0,0 +1,62 @@
+package com.matthewn.subwich;
+
+import android.os.CancellationSignal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Fork/join task that loads the data of a range of series folders. The range is split in half
+ * until it is small enough to list serially, so the folders are listed concurrently on all the
+ * threads of the pool and the results are joined back into one list. Each serial chunk is also
+ * sent to the listener as soon as it is listed.
+ */
+class FolderScanTask extends RecursiveTask<List<VideoEntry>> {
+    private static final int SerialThreshold = 4;
+
+    private final LibrarySource mSource;
+    private final LibrarySource.Folder[] mFolders;
+    private final int mStart;
+    private final int mEnd;
+    private final LibraryIndex.Listener mListener;
+    private final CancellationSignal mSignal;
+
+    FolderScanTask(LibrarySource source, LibrarySource.Folder[] folders,
+                   LibraryIndex.Listener listener, CancellationSignal signal) {
+        this(source, folders, 0, folders.length, listener, signal);
+    }
+
+    private FolderScanTask(LibrarySource source, LibrarySource.Folder[] folders, int start,
+                           int end, LibraryIndex.Listener listener, CancellationSignal signal) {
+        mSource = source;
+        mFolders = folders;
+        mStart = start;
+        mEnd = end;
+        mListener = listener;
+        mSignal = signal;
+    }
+
+    @Override
+    protected List<VideoEntry> compute() {
+        if (mEnd - mStart <= SerialThreshold) {
+            List<VideoEntry> entries = new ArrayList<>(mEnd - mStart);
+            for (int i = mStart; i < mEnd; i++) {
+                LibraryIndex.throwIfCanceled(mSignal);
+                entries.add(mSource.load(mFolders[i]));
+            }
+            LibraryIndex.publishFound(mListener, entries);
+            return entries;
+        }
+        int middle = (mStart + mEnd) >>> 1;
+        FolderScanTask left = new FolderScanTask(mSource, mFolders, mStart, middle,
+                mListener, mSignal);
+        FolderScanTask right = new FolderScanTask(mSource, mFolders, middle, mEnd,
+                mListener, mSignal);
+        left.fork();
+        List<VideoEntry> entries = right.compute();
+        List<VideoEntry> leftEntries = left.join();
+        leftEntries.addAll(entries);
+        return leftEntries;
+    }
+}
@@ -0,0 +1,55 @@
+package com.matthewn.subwich;
+
+import android.os.CancellationSignal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Fork/join task that lists the child folders of a range of folders on the same level. Like
+ * {@link FolderScanTask} the range is split in half until it is small enough to list serially.
+ */
+class FolderWalkTask extends RecursiveTask<List<LibrarySource.Folder>> {
+    private static final int SerialThreshold = 4;
+
+    private final FileLibrarySource mSource;
+    private final LibrarySource.Folder[] mFolders;
+    private final int mStart;
+    private final int mEnd;
+    private final CancellationSignal mSignal;
+
+    FolderWalkTask(FileLibrarySource source, LibrarySource.Folder[] folders,
+                   CancellationSignal signal) {
+        this(source, folders, 0, folders.length, signal);
+    }
+
+    private FolderWalkTask(FileLibrarySource source, LibrarySource.Folder[] folders, int start,
+                           int end, CancellationSignal signal) {
+        mSource = source;
+        mFolders = folders;
+        mStart = start;
+        mEnd = end;
+        mSignal = signal;
+    }
+
+    @Override
+    protected List<LibrarySource.Folder> compute() {
+        if (mEnd - mStart <= SerialThreshold) {
+            List<LibrarySource.Folder> children = new ArrayList<>();
+            for (int i = mStart; i < mEnd; i++) {
+                LibraryIndex.throwIfCanceled(mSignal);
+                children.addAll(mSource.listChildren(mFolders[i]));
+            }
+            return children;
+        }
+        int middle = (mStart + mEnd) >>> 1;
+        FolderWalkTask left = new FolderWalkTask(mSource, mFolders, mStart, middle, mSignal);
+        FolderWalkTask right = new FolderWalkTask(mSource, mFolders, middle, mEnd, mSignal);
+        left.fork();
+        List<LibrarySource.Folder> children = right.compute();
+        List<LibrarySource.Folder> leftChildren = left.join();
+        leftChildren.addAll(children);
+        return leftChildren;
+    }
+}
@@ -0,0 +1,117 @@
+package com.matthewn.subwich;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The last time a subtitle of each series was written, saved in the preferences of the app as
+ * name:timestamp pairs. It belongs to the application so scans that finish while an activity is
+ * recreated still sort the series by when they were used. The names that were read since the
+ * last purge are kept, the rest can be removed once the whole library was scanned.
+ */
+public class LastUsedTimes {
+    private static final String TAG = "LastUsedTimes";
+
+    private final SharedPreferences mPrefs;
+    private final String mKey;
+    private final Map<String, Long> mTimes = new HashMap<>();
+    private final Set<String> mUpdatedNames = new HashSet<>();
+
+    public LastUsedTimes(Context context) {
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+        mKey = context.getString(R.string.settings_subtitles_last_written);
+        load();
+    }
+
+    private void load() {
+        Set<String> data = mPrefs.getStringSet(mKey, null);
+        if (data == null) {
+            return;
+        }
+        for (String pair : data) {
+            String[] d = pair.split(":");
+            if (d.length == 2) {
+                try {
+                    mTimes.put(d[0], Long.parseLong(d[1]));
+                } catch (NumberFormatException e) {
+                    Log.w(TAG, "Ignored parsing timestamp invalid data: " + pair);
+                }
+            } else {
+                Log.w(TAG, "Ignored getting time stamp for this corrupted entry: " + pair);
+            }
+        }
+    }
+
+    /**
+     * Can be called from any thread
+     * @return last time a subtitle of the series was written or 0 if it never was
+     */
+    public synchronized long get(VideoEntry entry) {
+        Long time = mTimes.get(entry.getName());
+        if (time == null) {
+            return 0;
+        }
+        mUpdatedNames.add(entry.getName());
+        return time;
+    }
+
+    /**
+     * Sets the time of each series, can be called from any thread
+     */
+    public void assign(Iterable<VideoEntry> entries) {
+        for (VideoEntry entry : entries) {
+            entry.setLastUsed(get(entry));
+        }
+    }
+
+    /**
+     * Marks the series as used now and saves it
+     */
+    public void save(VideoEntry entry) {
+        entry.updateUsed();
+        synchronized (this) {
+            mTimes.put(entry.getName(), entry.getLastUsed());
+            write();
+        }
+    }
+
+    /**
+     * Removes the times of the series that were not read since the last time, should only be
+     * called once every series of the library was read
+     */
+    public synchronized void removeUnused() {
+        if (mUpdatedNames.isEmpty()) {
+            return;
+        }
+        boolean removed = false;
+        Iterator<String> it = mTimes.keySet().iterator();
+        while (it.hasNext()) {
+            if (!mUpdatedNames.contains(it.next())) {
+                it.remove();
+                removed = true;
+            }
+        }
+        mUpdatedNames.clear();
+        if (removed) {
+            write();
+        }
+    }
+
+    private void write() {
+        Set<String> data = new HashSet<>();
+        for (Map.Entry<String, Long> time : mTimes.entrySet()) {
+            if (time.getValue() > 0) {
+                data.add(time.getKey() + ":" + time.getValue());
+            }
+        }
+        mPrefs.edit().putStringSet(mKey, data).apply();
+    }
+}
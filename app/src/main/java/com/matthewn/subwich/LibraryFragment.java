@@ -0,0 +1,948 @@
+package com.matthewn.subwich;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import android.support.v4.app.Fragment;
+import android.support.v4.app.FragmentActivity;
+import android.support.v4.app.FragmentManager;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Headless fragment that is retained across configuration changes and holds the scanned library
+ * and any scan that is still running. A recreated activity reattaches to it and shows the
+ * entries that were already found instead of scanning the subtitles root again. When there are
+ * several roots, each storage volume is scanned on its own thread and series with the same name
+ * are only listed once.
+ */
+public class LibraryFragment extends Fragment implements LibraryWatcher.Listener,
+        LibraryRepository.Listener, ScanCoordinator.ScanTask, VideoListAdapter.EntryResolver {
+    private static final String TAG = "LibraryFragment";
+
+    public interface Callbacks {
+        /**
+         * A batch of entries was found while scanning
+         * @param entries entries that were found
+         */
+        public void onLibraryBatch(List<VideoEntry> entries);
+
+        /**
+         * The scan has finished
+         * @param entries all the entries of the library
+         */
+        public void onLibraryLoaded(List<VideoEntry> entries);
+
+        /**
+         * The subtitles root cannot be read
+         */
+        public void onLibraryRootInvalid();
+
+        public void onLibraryEntryAdded(VideoEntry entry);
+
+        public void onLibraryEntryRemoved(String path);
+
+        public void onLibraryEntryChanged(VideoEntry entry);
+
+        /**
+         * The index of the titles was rebuilt after series were added or removed
+         */
+        public void onTitleIndexChanged();
+    }
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final List<VideoEntry> mEntries = new ArrayList<>();
+    private final List<VideoEntry> mFoundEntries = new ArrayList<>();
+    private final Map<String, Integer> mFoundRoots = new HashMap<>();
+    private final Map<String, LibraryIndex> mLibraryIndexes = new HashMap<>();
+    private final Map<String, LibraryWatcher> mLibraryWatchers = new HashMap<>();
+    private final Set<String> mResolving = new HashSet<>();
+    private Context mAppContext;
+    private volatile Callbacks mCallbacks;
+    private File mFilesDir;
+    private LibrarySnapshot mLibrarySnapshot;
+    private LibraryRepository mRepository;
+    private DialogueIndex mDialogueIndex;
+    private LastUsedTimes mLastUsedTimes;
+    private ContentResolver mResolver;
+    private CancellationSignal mDialogueSignal;
+    private ScanCoordinator mScanCoordinator;
+    private volatile List<LibrarySource> mSources;
+    private TitleIndex mTitleIndex = new TitleIndex(Collections.<VideoEntry>emptyList());
+    private int mTitleIndexRequested;
+    private int mTitleIndexApplied;
+    private boolean mBuildingTitleIndex;
+    private volatile String mRootsKey;
+    private boolean mLoading;
+    private boolean mLoaded;
+
+    /**
+     * Finds the retained library of the activity or adds a new one
+     * @param activity the activity that shows the library
+     * @return the library fragment
+     */
+    public static LibraryFragment attach(FragmentActivity activity) {
+        FragmentManager manager = activity.getSupportFragmentManager();
+        LibraryFragment fragment = (LibraryFragment) manager.findFragmentByTag(TAG);
+        if (fragment == null) {
+            fragment = new LibraryFragment();
+            manager.beginTransaction().add(fragment, TAG).commitNow();
+        }
+        return fragment;
+    }
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setRetainInstance(true);
+        Context context = getContext().getApplicationContext();
+        mAppContext = context;
+        mFilesDir = context.getFilesDir();
+        mLibrarySnapshot = new LibrarySnapshot(
+                new File(mFilesDir, SubwichApplication.LIBRARY_SNAPSHOT_FILE));
+        mRepository = SubwichApplication.get(context).getLibrary();
+        mRepository.addListener(this);
+        mDialogueIndex = SubwichApplication.get(context).getDialogueIndex();
+        mLastUsedTimes = SubwichApplication.get(context).getLastUsedTimes();
+        mResolver = context.getContentResolver();
+        mScanCoordinator = new ScanCoordinator(BackgroundExecutor.get()
+                .executorFor(this, BackgroundExecutor.LANE_INDEXING), this);
+    }
+
+    @Override
+    public void onAttach(Context context) {
+        super.onAttach(context);
+        mCallbacks = (Callbacks) context;
+    }
+
+    @Override
+    public void onDetach() {
+        super.onDetach();
+        mCallbacks = null;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        mScanCoordinator.cancel();
+        mRepository.removeListener(this);
+        if (mDialogueSignal != null) {
+            mDialogueSignal.cancel();
+        }
+        synchronized (mLibraryWatchers) {
+            for (LibraryWatcher watcher : mLibraryWatchers.values()) {
+                watcher.stopWatching();
+            }
+            mLibraryWatchers.clear();
+        }
+        BackgroundExecutor.get().cancelAll(this);
+    }
+
+    /**
+     * @return the entries of the library, or the entries found so far when loading for the
+     *         first time
+     */
+    public List<VideoEntry> getEntries() {
+        return mEntries.isEmpty() && mLoading ? mFoundEntries : mEntries;
+    }
+
+    /**
+     * @return index of the titles of the library. It is rebuilt in the background when series
+     *         are added or removed, so it can miss the latest changes until
+     *         {@link Callbacks#onTitleIndexChanged} is called.
+     */
+    public TitleIndex getTitleIndex() {
+        return mTitleIndex;
+    }
+
+    /**
+     * Rebuilds the title index after series were added or removed. Changes made while a build
+     * runs are picked up by one more build once it finishes.
+     */
+    private void updateTitleIndex() {
+        mTitleIndexRequested++;
+        if (!mBuildingTitleIndex) {
+            buildTitleIndex();
+        }
+    }
+
+    private void buildTitleIndex() {
+        mBuildingTitleIndex = true;
+        final int request = mTitleIndexRequested;
+        final List<VideoEntry> entries = new ArrayList<>(getEntries());
+        BackgroundExecutor.get().submit(this, BackgroundExecutor.LANE_LOADING, new Runnable() {
+            @Override
+            public void run() {
+                final TitleIndex index = new TitleIndex(entries);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mBuildingTitleIndex = false;
+                        applyTitleIndex(index, request);
+                        if (mTitleIndexApplied < mTitleIndexRequested) {
+                            buildTitleIndex();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Uses the index unless an index of a later change is already used
+     * @param request number of the change the index was built for
+     */
+    private void applyTitleIndex(TitleIndex index, int request) {
+        if (request <= mTitleIndexApplied) {
+            return;
+        }
+        mTitleIndex = index;
+        mTitleIndexApplied = request;
+        if (mCallbacks != null) {
+            mCallbacks.onTitleIndexChanged();
+        }
+    }
+
+    public boolean isLoading() {
+        return mLoading;
+    }
+
+    /**
+     * @return whether the library is loading with nothing shown before, so the entries found
+     *         should be shown as they come
+     */
+    public boolean isFirstLoad() {
+        return mLoading && mEntries.isEmpty();
+    }
+
+    /**
+     * @return whether the library has been loaded or is loading so no new scan is needed
+     */
+    public boolean hasLibrary() {
+        return mLoaded || mLoading;
+    }
+
+    /**
+     * Shows the snapshot of the last scan of these roots until the scan finishes
+     * @param rootPaths the subtitles roots
+     * @return the entries of the snapshot
+     */
+    public List<VideoEntry> readSnapshot(List<String> rootPaths) {
+        if (mEntries.isEmpty()) {
+            mRootsKey = LibrarySnapshot.keyOf(rootPaths);
+            mEntries.addAll(mLibrarySnapshot.read(mRootsKey));
+            mRepository.putAll(mEntries);
+            updateTitleIndex();
+        }
+        return mEntries;
+    }
+
+    public void clear() {
+        mRepository.clear();
+        mEntries.clear();
+        mFoundEntries.clear();
+        mFoundRoots.clear();
+        mLoaded = false;
+        updateTitleIndex();
+    }
+
+    /**
+     * Requests a scan of the roots. Requests that come in quick succession are merged and a new
+     * request replaces the scan that is running.
+     * @param sources the subtitles roots
+     */
+    public void load(List<LibrarySource> sources) {
+        List<String> rootPaths = new ArrayList<>(sources.size());
+        for (LibrarySource source : sources) {
+            rootPaths.add(source.getRootPath());
+        }
+        String rootsKey = LibrarySnapshot.keyOf(rootPaths);
+        boolean immediate = !mLoaded && !mLoading;
+        if (!rootsKey.equals(mRootsKey)) {
+            clear();
+            mRootsKey = rootsKey;
+            immediate = true;
+        }
+        mSources = sources;
+        mLoading = true;
+        mFoundEntries.clear();
+        mFoundRoots.clear();
+        mScanCoordinator.requestScan(immediate);
+    }
+
+    @Override
+    public void scan(final CancellationSignal signal, final int generation) {
+        final List<LibrarySource> sources = mSources;
+        final String rootsKey = mRootsKey;
+
+        // Scan each storage volume on its own thread so the scan only takes as long as the
+        // slowest volume, roots on the same volume are scanned one after the other instead of
+        // competing for its reads
+        Map<String, List<Integer>> volumes = new LinkedHashMap<>();
+        for (int i = 0; i < sources.size(); i++) {
+            String volumeId = sources.get(i).getVolumeId();
+            List<Integer> roots = volumes.get(volumeId);
+            if (roots == null) {
+                roots = new ArrayList<>();
+                volumes.put(volumeId, roots);
+            }
+            roots.add(i);
+        }
+        List<Future<?>> futures = new ArrayList<>(volumes.size());
+        final List<List<VideoEntry>> results = Collections.synchronizedList(
+                new ArrayList<List<VideoEntry>>(Collections.<List<VideoEntry>>nCopies(
+                        sources.size(), null)));
+        for (final List<Integer> roots : volumes.values()) {
+            futures.add(BackgroundExecutor.get().submit(this, BackgroundExecutor.LANE_ROOT_SCAN,
+                    new Runnable() {
+                @Override
+                public void run() {
+                    for (int index : roots) {
+                        results.set(index, scanRoot(sources.get(index),
+                                newFoundListener(index, generation), signal));
+                    }
+                }
+            }));
+        }
+        waitForAll(futures);
+
+        // Check for valid root folders, roots that cannot be read such as a removed sd card are
+        // left out as long as one can be read. Their series are missing, not removed, so nothing
+        // kept for them is removed until every root can be read again.
+        final List<VideoEntry> entries = merge(results);
+        final boolean complete = !results.contains(null);
+        if (entries == null) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mScanCoordinator.isCurrent(generation)) {
+                        return;
+                    }
+                    mLoading = false;
+                    clear();
+                    if (mCallbacks != null) {
+                        mCallbacks.onLibraryRootInvalid();
+                    }
+                }
+            });
+            return;
+        }
+
+        assignLastUsed(entries);
+        final TitleIndex titleIndex = new TitleIndex(entries);
+
+        // A scan that was replaced by a newer one must not overwrite its snapshot
+        signal.throwIfCanceled();
+        if (complete) {
+            mLibrarySnapshot.write(rootsKey, entries);
+        }
+        stopUnusedWatchers(sources);
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mScanCoordinator.isCurrent(generation)) {
+                    return;
+                }
+                mLoading = false;
+                mLoaded = true;
+                mFoundEntries.clear();
+                mFoundRoots.clear();
+                mEntries.clear();
+                for (VideoEntry entry : entries) {
+                    // Leave out series loaded on demand that turned out to be empty
+                    if (!entry.isResolved() || entry.getNumSubs() > 0) {
+                        mEntries.add(entry);
+                    }
+                }
+                applyTitleIndex(titleIndex, ++mTitleIndexRequested);
+                mRepository.replaceAll(mEntries);
+                if (complete) {
+                    mLastUsedTimes.removeUnused();
+                }
+                if (mCallbacks != null) {
+                    mCallbacks.onLibraryLoaded(mEntries);
+                }
+                indexDialogue(complete);
+            }
+        });
+    }
+
+    /**
+     * @param rootIndex position of the root in the sources
+     * @return listener that shows the batches found in the root while scanning
+     */
+    private LibraryIndex.Listener newFoundListener(final int rootIndex, final int generation) {
+        return new LibraryIndex.Listener() {
+            @Override
+            public void onEntriesFound(final List<VideoEntry> entries) {
+                assignLastUsed(entries);
+
+                // Build the rows here so showing the batch only binds them
+                for (VideoEntry entry : entries) {
+                    entry.getRow();
+                }
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mScanCoordinator.isCurrent(generation)) {
+                            addFound(entries, rootIndex);
+                        }
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Brings the dialogue index up to date with the library in the background, replacing any
+     * update that is still running. Only subtitles that changed are read.
+     * @param complete whether every root could be read, otherwise the dialogue of series that
+     *                 are missing from the library is kept
+     */
+    private void indexDialogue(final boolean complete) {
+        if (mDialogueSignal != null) {
+            mDialogueSignal.cancel();
+        }
+        final CancellationSignal signal = new CancellationSignal();
+        final List<VideoEntry> entries = new ArrayList<>(mEntries);
+        mDialogueSignal = signal;
+        BackgroundExecutor.get().submit(this, BackgroundExecutor.LANE_DIALOGUE, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mDialogueIndex.update(entries, complete, mResolver, signal);
+                } catch (OperationCanceledException ignored) {
+                }
+            }
+        });
+    }
+
+    /**
+     * Indexes the dialogue of a series that was added or listed again while watched
+     */
+    private void indexDialogue(final VideoEntry entry) {
+        BackgroundExecutor.get().submit(this, BackgroundExecutor.LANE_DIALOGUE, new Runnable() {
+            @Override
+            public void run() {
+                mDialogueIndex.updateSeries(entry, mResolver);
+            }
+        });
+    }
+
+    /**
+     * Drops the dialogue of a series that was removed while watched
+     */
+    private void removeDialogue(final String seriesName) {
+        BackgroundExecutor.get().submit(this, BackgroundExecutor.LANE_DIALOGUE, new Runnable() {
+            @Override
+            public void run() {
+                mDialogueIndex.removeSeries(seriesName);
+            }
+        });
+    }
+
+    /**
+     * Scans one root with its own index and watches it for changes
+     * @return the entries of the root or null if it cannot be read
+     */
+    private List<VideoEntry> scanRoot(LibrarySource source, LibraryIndex.Listener listener,
+                                      CancellationSignal signal) {
+        if (!source.isReadable()) {
+            return null;
+        }
+
+        // Only changed folders are listed
+        List<VideoEntry> entries = getIndex(source.getRootPath()).refresh(source, listener,
+                signal);
+
+        // Keep the listing up to date with files added to or removed from folders, document
+        // trees cannot be observed
+        signal.throwIfCanceled();
+        if (entries != null && source instanceof FileLibrarySource) {
+            getWatcher(source.getRootPath()).startWatching(new File(source.getRootPath()),
+                    ((FileLibrarySource) source).getMaxDepth());
+        }
+        return entries;
+    }
+
+    private LibraryIndex getIndex(String rootPath) {
+        synchronized (mLibraryIndexes) {
+            LibraryIndex index = mLibraryIndexes.get(rootPath);
+            if (index == null) {
+                index = new LibraryIndex(new File(mFilesDir,
+                        "library-" + Integer.toHexString(rootPath.hashCode()) + ".index"));
+                mLibraryIndexes.put(rootPath, index);
+            }
+            return index;
+        }
+    }
+
+    private LibraryWatcher getWatcher(String rootPath) {
+        synchronized (mLibraryWatchers) {
+            LibraryWatcher watcher = mLibraryWatchers.get(rootPath);
+            if (watcher == null) {
+                watcher = new LibraryWatcher(this);
+                mLibraryWatchers.put(rootPath, watcher);
+            }
+            return watcher;
+        }
+    }
+
+    private void stopUnusedWatchers(List<LibrarySource> sources) {
+        Set<String> watchedPaths = new HashSet<>();
+        for (LibrarySource source : sources) {
+            if (source instanceof FileLibrarySource) {
+                watchedPaths.add(source.getRootPath());
+            }
+        }
+        synchronized (mLibraryWatchers) {
+            Iterator<Map.Entry<String, LibraryWatcher>> it =
+                    mLibraryWatchers.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, LibraryWatcher> watcher = it.next();
+                if (!watchedPaths.contains(watcher.getKey())) {
+                    watcher.getValue().stopWatching();
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for the scans of all roots
+     * @throws OperationCanceledException if any of them was canceled
+     */
+    private static void waitForAll(List<Future<?>> futures) {
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (CancellationException | InterruptedException e) {
+                throw new OperationCanceledException();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new RuntimeException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Merges the entries of all roots, a series found in more than one root is listed once with
+     * the copy that {@link #isPreferred} picks
+     * @param results entries of each root, null for roots that cannot be read
+     * @return the merged entries or null if no root can be read
+     */
+    private static List<VideoEntry> merge(List<List<VideoEntry>> results) {
+        Map<String, VideoEntry> entries = new LinkedHashMap<>();
+        Map<String, Integer> roots = new HashMap<>();
+        boolean readable = false;
+        for (int i = 0; i < results.size(); i++) {
+            List<VideoEntry> rootEntries = results.get(i);
+            if (rootEntries == null) {
+                continue;
+            }
+            readable = true;
+            for (VideoEntry entry : rootEntries) {
+                VideoEntry existing = entries.get(entry.getName());
+                if (existing == null
+                        || isPreferred(entry, i, existing, roots.get(entry.getName()))) {
+                    entries.put(entry.getName(), entry);
+                    roots.put(entry.getName(), i);
+                }
+            }
+        }
+        return readable ? new ArrayList<>(entries.values()) : null;
+    }
+
+    /**
+     * A series found in more than one root is listed with the copy that has the most subtitles,
+     * or the copy in the first root when they have as many. The same copy is kept whatever order
+     * the roots finish in.
+     */
+    private static boolean isPreferred(VideoEntry entry, int rootIndex, VideoEntry existing,
+                                       int existingRootIndex) {
+        if (entry.getNumSubs() != existing.getNumSubs()) {
+            return entry.getNumSubs() > existing.getNumSubs();
+        }
+        return rootIndex < existingRootIndex;
+    }
+
+    /**
+     * Shows a batch found while scanning. A series already found in another root only replaces
+     * that copy when it is the preferred one, like when the roots are merged.
+     * @param rootIndex position of the root the batch was found in
+     */
+    private void addFound(List<VideoEntry> entries, int rootIndex) {
+        List<VideoEntry> batch = new ArrayList<>(entries.size());
+        for (VideoEntry entry : entries) {
+            Integer existingRoot = mFoundRoots.get(entry.getName());
+            if (existingRoot == null) {
+                mFoundRoots.put(entry.getName(), rootIndex);
+                batch.add(entry);
+                continue;
+            }
+            int position = indexOfName(mFoundEntries, entry.getName());
+            if (position >= 0 && isPreferred(entry, rootIndex, mFoundEntries.get(position),
+                    existingRoot)) {
+                mFoundRoots.put(entry.getName(), rootIndex);
+                mFoundEntries.set(position, entry);
+                mRepository.put(entry);
+                if (mCallbacks != null) {
+                    mCallbacks.onLibraryEntryChanged(entry);
+                }
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        mFoundEntries.addAll(batch);
+        mRepository.putAll(batch);
+        updateTitleIndex();
+        if (mCallbacks != null) {
+            mCallbacks.onLibraryBatch(batch);
+        }
+    }
+
+    /**
+     * Lists the folder of a series that was found while loading on demand, once its row is
+     * shown. Series without subtitles are removed from the library as they are found.
+     * @param entry the series to list
+     */
+    @Override
+    public void resolve(VideoEntry entry) {
+        resolve(entry, null);
+    }
+
+    /**
+     * Lists the series of a page that were found while loading on demand before the page is
+     * shown, their folders are listed in parallel on the loading lane
+     */
+    @Override
+    public void resolvePage(List<VideoEntry> entries, final Runnable resolved) {
+        final List<VideoEntry> unresolved = new ArrayList<>();
+        for (VideoEntry entry : entries) {
+            if (!entry.isResolved() && !mResolving.contains(entry.getPath())) {
+                unresolved.add(entry);
+            }
+        }
+        if (unresolved.isEmpty()) {
+            resolved.run();
+            return;
+        }
+        Runnable listed = new Runnable() {
+            private int mRemaining = unresolved.size();
+
+            @Override
+            public void run() {
+                if (--mRemaining == 0) {
+                    resolved.run();
+                }
+            }
+        };
+        for (VideoEntry entry : unresolved) {
+            resolve(entry, listed);
+        }
+    }
+
+    /**
+     * @param listed called on the main thread once the series is swapped in or removed, may be
+     *               null
+     */
+    private void resolve(final VideoEntry entry, final Runnable listed) {
+        if (entry.isResolved() || !mResolving.add(entry.getPath())) {
+            return;
+        }
+        BackgroundExecutor.get().submit(this, BackgroundExecutor.LANE_LOADING, new Runnable() {
+            @Override
+            public void run() {
+                // The shown entry is only read on the main thread, so list the folder into a copy
+                // The source that found it can use what it knows of the folder, such as the
+                // media store index, and the time of the folder it was found with
+                final VideoEntry resolved = entry.copyUnresolved();
+                LibrarySource source = getSource(entry.getPath());
+                if (source != null) {
+                    source.reload(resolved, entry.getModified());
+                } else {
+                    LibrarySource.reloadFolder(mAppContext, resolved);
+                }
+                resolved.getRow();
+                updateLibraryIndexes(resolved);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mResolving.remove(entry.getPath());
+                        swapResolved(entry, resolved);
+                        if (listed != null) {
+                            listed.run();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Replaces a series listed on demand by its listed copy, or removes it if it turned out to
+     * have no subtitles
+     */
+    private void swapResolved(VideoEntry entry, VideoEntry resolved) {
+        if (resolved.getNumSubs() == 0) {
+            // Only this folder, the season folders inside it are series of their own
+            removeFound(entry);
+            removeEntry(entry);
+            return;
+        }
+        int index = mEntries.indexOf(entry);
+        if (index >= 0) {
+            replaceEntry(index, resolved);
+            return;
+        }
+        index = mFoundEntries.indexOf(entry);
+        if (index >= 0) {
+            mFoundEntries.set(index, resolved);
+            mRepository.put(resolved);
+            if (mCallbacks != null) {
+                mCallbacks.onLibraryEntryChanged(resolved);
+            }
+        }
+    }
+
+    /**
+     * Hands a series that was listed on demand to the index of its root, so the next scan saves
+     * it instead of listing it again
+     */
+    private void updateLibraryIndexes(VideoEntry entry) {
+        synchronized (mLibraryIndexes) {
+            for (LibraryIndex index : mLibraryIndexes.values()) {
+                index.update(entry);
+            }
+        }
+    }
+
+    /**
+     * Drops an entry found while loading for the first time
+     */
+    private void removeFound(VideoEntry entry) {
+        if (mFoundEntries.remove(entry)) {
+            mFoundRoots.remove(entry.getName());
+            mRepository.remove(entry);
+            updateTitleIndex();
+        }
+    }
+
+    /**
+     * A series that was listed again while its subtitles were shown replaces the one in the
+     * library
+     */
+    @Override
+    public void onEntryReplaced(VideoEntry entry) {
+        int index = indexOfName(mEntries, entry.getName());
+        if (index >= 0) {
+            replaceEntry(index, entry);
+            indexDialogue(entry);
+            return;
+        }
+        index = indexOfName(mFoundEntries, entry.getName());
+        if (index >= 0) {
+            mFoundEntries.set(index, entry);
+            if (mCallbacks != null) {
+                mCallbacks.onLibraryEntryChanged(entry);
+            }
+        }
+    }
+
+    /**
+     * Drops a series of the library that turned out to have no subtitles
+     */
+    private void removeEntry(VideoEntry entry) {
+        if (mEntries.remove(entry)) {
+            mRepository.remove(entry);
+            removeDialogue(entry.getName());
+            updateTitleIndex();
+        }
+        if (mCallbacks != null) {
+            mCallbacks.onLibraryEntryRemoved(entry.getPath());
+        }
+    }
+
+    @Override
+    public void onFolderAdded(final File folder) {
+        BackgroundExecutor.get().submit(this, BackgroundExecutor.LANE_LOADING, new Runnable() {
+            @Override
+            public void run() {
+                final VideoEntry entry = newFolderEntry(folder);
+                entry.reloadData();
+                if (entry.getNumSubs() > 0) {
+                    assignLastUsed(Collections.singletonList(entry));
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (indexOfPath(entry.getPath()) < 0
+                                    && mRepository.get(entry.getName()) == null) {
+                                mEntries.add(entry);
+                                mRepository.put(entry);
+                                updateTitleIndex();
+                                if (mCallbacks != null) {
+                                    mCallbacks.onLibraryEntryAdded(entry);
+                                }
+                                indexDialogue(entry);
+                            }
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the source of the root the folder is in, or null if it is in none of them
+     */
+    private LibrarySource getSource(String folderPath) {
+        List<LibrarySource> sources = mSources;
+        if (sources != null) {
+            for (LibrarySource source : sources) {
+                if (source.contains(folderPath)) {
+                    return source;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return entry of a folder inside one of the roots, titled like the scan titles it
+     */
+    private VideoEntry newFolderEntry(File folder) {
+        String path = folder.getAbsolutePath();
+        for (LibrarySource source : mSources) {
+            String rootPath = source.getRootPath();
+            if (path.startsWith(rootPath + "/")) {
+                return new VideoEntry(path, FileLibrarySource.titleOf(rootPath, path));
+            }
+        }
+        return new VideoEntry(folder);
+    }
+
+    @Override
+    public void onFolderRemoved(String path) {
+        // Series in season folders inside the folder are removed with it
+        String prefix = path + "/";
+        List<String> removed = new ArrayList<>();
+        removed.add(path);
+        boolean changed = false;
+        Iterator<VideoEntry> it = mEntries.iterator();
+        while (it.hasNext()) {
+            VideoEntry entry = it.next();
+            if (entry.getPath().equals(path) || entry.getPath().startsWith(prefix)) {
+                it.remove();
+                mRepository.remove(entry);
+                removeDialogue(entry.getName());
+                changed = true;
+                if (!entry.getPath().equals(path)) {
+                    removed.add(entry.getPath());
+                }
+            }
+        }
+        if (changed) {
+            updateTitleIndex();
+        }
+        if (mCallbacks != null) {
+            for (String removedPath : removed) {
+                mCallbacks.onLibraryEntryRemoved(removedPath);
+            }
+        }
+    }
+
+    @Override
+    public void onFolderChanged(final String path) {
+        int position = indexOfPath(path);
+        if (position < 0) {
+            // Folder had no subtitles before so it is not listed yet
+            onFolderAdded(new File(path));
+            return;
+        }
+        final VideoEntry entry = mEntries.get(position);
+        BackgroundExecutor.get().submit(this, BackgroundExecutor.LANE_LOADING, new Runnable() {
+            @Override
+            public void run() {
+                // The listed entry is only read on the main thread, so list the folder into a copy
+                final VideoEntry reloaded = entry.copyUnresolved();
+                reloaded.reloadData();
+                reloaded.getRow();
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        int index = mEntries.indexOf(entry);
+                        if (index < 0) {
+                            // Removed or replaced while the folder was listed
+                            return;
+                        }
+                        if (reloaded.getNumSubs() == 0) {
+                            removeEntry(entry);
+                            return;
+                        }
+                        replaceEntry(index, reloaded);
+                        indexDialogue(reloaded);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Swaps the copy of a series that was listed again into the library and its row
+     * @param index position of the series in the library
+     * @param entry the copy that replaces it
+     */
+    private void replaceEntry(int index, VideoEntry entry) {
+        mEntries.set(index, entry);
+        mRepository.put(entry);
+        if (mCallbacks != null) {
+            mCallbacks.onLibraryEntryChanged(entry);
+        }
+    }
+
+    /**
+     * Sets the last used time of the scanned entries from the times of the application, so
+     * entries found while the activity is recreated keep their order. Called from the scan
+     * threads.
+     */
+    private void assignLastUsed(List<VideoEntry> entries) {
+        mLastUsedTimes.assign(entries);
+    }
+
+    private static int indexOfName(List<VideoEntry> entries, String name) {
+        for (int i = 0; i < entries.size(); i++) {
+            if (entries.get(i).getName().equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int indexOfPath(String path) {
+        for (int i = 0; i < mEntries.size(); i++) {
+            if (mEntries.get(i).getPath().equals(path)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
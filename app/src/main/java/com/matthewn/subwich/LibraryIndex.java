@@ -0,0 +1,368 @@
+package com.matthewn.subwich;
+
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * Index of every series folder under the subtitles root that is saved to disk. Each folder
+ * keeps its cover path, episodes and the modified time of the folder when it was last listed,
+ * so a refresh only has to list the folders that changed since the last scan. Large numbers of
+ * changed folders are listed in parallel on a bounded fork/join pool. Nested folders are
+ * refreshed one level at a time so the series at the top show up first.
+ */
+public class LibraryIndex {
+    private static final String TAG = "LibraryIndex";
+    private static final int VERSION = 7;
+    private static final int ParallelThreshold = 8;
+    private static final int MaxScanThreads = 8;
+    private static final int BatchSize = 16;
+
+    private static ForkJoinPool sScanPool;
+
+    private final File mFile;
+    private final Map<String, VideoEntry> mEntries = new HashMap<>();
+    private final Map<String, VideoEntry> mResolved = new HashMap<>();
+    private String mRootPath;
+    private boolean mLoaded;
+    private boolean mDirty;
+
+    public LibraryIndex(File file) {
+        mFile = file;
+        mLoaded = false;
+        mDirty = false;
+    }
+
+    public interface Listener {
+        /**
+         * Called from a background thread with each small batch of series that have subtitles
+         * as they are found during a refresh.
+         * @param entries the batch of entries found
+         */
+        public void onEntriesFound(List<VideoEntry> entries);
+    }
+
+    /**
+     * Scans the root folder for series, only listing the folders that are new or have changed
+     * since the last refresh. Folders that are gone are dropped from the index. Must not be
+     * called from the main thread.
+     * @param source the subtitles root to read from
+     * @param listener optional listener to receive the entries in batches while scanning
+     * @param signal optional signal to cancel the refresh between folders
+     * @return entries of all the folders that have subtitles, or null if the root is unreadable
+     * @throws OperationCanceledException if the signal was canceled
+     */
+    public synchronized List<VideoEntry> refresh(LibrarySource source, Listener listener,
+                                                 CancellationSignal signal) {
+        load();
+        String rootPath = source.getRootPath();
+        if (!rootPath.equals(mRootPath)) {
+            mEntries.clear();
+            mRootPath = rootPath;
+            mDirty = true;
+        }
+
+        List<LibrarySource.Folder> folders = source.listFolders();
+        if (folders == null) {
+            return null;
+        }
+
+        // Series loaded on demand that were listed since the last refresh are saved with it
+        takeResolved();
+        List<VideoEntry> entries = new ArrayList<>();
+        Set<String> found = new HashSet<>();
+        int numFolders = 0;
+        int numListed = 0;
+        while (!folders.isEmpty()) {
+            numFolders += folders.size();
+            numListed += refreshFolders(source, folders, entries, found, listener, signal);
+
+            // Breadth first, the next level is only read once this level is shown
+            throwIfCanceled(signal);
+            folders = source.listSubfolders(folders, signal);
+        }
+
+        // Drop the folders that no longer exist
+        Iterator<String> it = mEntries.keySet().iterator();
+        while (it.hasNext()) {
+            if (!found.contains(it.next())) {
+                it.remove();
+                mDirty = true;
+            }
+        }
+        Log.v(TAG, "Refreshed " + numFolders + " folders, listed " + numListed);
+        save();
+        return entries;
+    }
+
+    /**
+     * Keeps a series loaded on demand that was listed after the refresh that found it, so the
+     * next refresh saves it instead of listing it again. Series of other roots are ignored. Can
+     * be called from any thread, it never waits for a refresh that is running.
+     * @param entry the listed copy of the series
+     */
+    public void update(VideoEntry entry) {
+        synchronized (mResolved) {
+            mResolved.put(entry.getPath(), entry);
+        }
+    }
+
+    /**
+     * Swaps in the series listed since the last refresh, the index only needs to be saved when
+     * one of them was still unresolved in it
+     */
+    private void takeResolved() {
+        List<VideoEntry> resolved;
+        synchronized (mResolved) {
+            resolved = new ArrayList<>(mResolved.values());
+            mResolved.clear();
+        }
+        for (VideoEntry entry : resolved) {
+            VideoEntry indexed = mEntries.get(entry.getPath());
+            if (indexed != null && !indexed.isResolved()) {
+                mEntries.put(entry.getPath(), entry);
+                mDirty = true;
+            }
+        }
+    }
+
+    /**
+     * Refreshes one level of folders
+     * @return number of folders that were listed
+     */
+    private int refreshFolders(LibrarySource source, List<LibrarySource.Folder> folders,
+                               List<VideoEntry> entries, Set<String> found, Listener listener,
+                               CancellationSignal signal) {
+        List<VideoEntry> batch = new ArrayList<>();
+        List<LibrarySource.Folder> changedFolders = new ArrayList<>();
+        for (LibrarySource.Folder folder : folders) {
+            throwIfCanceled(signal);
+            found.add(folder.path);
+            VideoEntry entry = mEntries.get(folder.path);
+            if (entry == null || entry.getModified() != folder.modified) {
+                changedFolders.add(folder);
+            } else if (addIfHasSubtitles(batch, entry) && batch.size() >= BatchSize) {
+                entries.addAll(batch);
+                publish(listener, batch);
+                batch = new ArrayList<>();
+            }
+        }
+        entries.addAll(batch);
+        publish(listener, batch);
+
+        // List the new and changed folders, in parallel when there are enough of them. When
+        // loading on demand they are only listed once their row is shown.
+        if (!changedFolders.isEmpty()) {
+            List<VideoEntry> reloaded = source.isLazy()
+                    ? createUnresolved(source, changedFolders, listener)
+                    : reloadFolders(source, changedFolders, listener, signal);
+            for (VideoEntry entry : reloaded) {
+                mEntries.put(entry.getPath(), entry);
+                addIfHasSubtitles(entries, entry);
+            }
+            mDirty = true;
+        }
+        return changedFolders.size();
+    }
+
+    private List<VideoEntry> reloadFolders(LibrarySource source,
+                                           List<LibrarySource.Folder> folders,
+                                           Listener listener, CancellationSignal signal) {
+        if (folders.size() <= ParallelThreshold) {
+            List<VideoEntry> entries = new ArrayList<>(folders.size());
+            for (LibrarySource.Folder folder : folders) {
+                throwIfCanceled(signal);
+                entries.add(source.load(folder));
+            }
+            publishFound(listener, entries);
+            return entries;
+        }
+        return getScanPool().invoke(new FolderScanTask(source,
+                folders.toArray(new LibrarySource.Folder[folders.size()]), listener, signal));
+    }
+
+    /**
+     * Creates entries for the folders without listing them. They keep the modified time of the
+     * folder so the next refresh does not take them for changed folders. Folders that surely
+     * have no subtitles, such as those that only hold season folders, are kept as listed without
+     * episodes so they are never shown.
+     */
+    private static List<VideoEntry> createUnresolved(LibrarySource source,
+                                                     List<LibrarySource.Folder> folders,
+                                                     Listener listener) {
+        List<VideoEntry> entries = new ArrayList<>(folders.size());
+        List<VideoEntry> batch = new ArrayList<>();
+        for (LibrarySource.Folder folder : folders) {
+            VideoEntry entry = new VideoEntry(folder.path, folder.name, folder.modified);
+            entries.add(entry);
+            if (!source.mayHaveSubtitles(folder)) {
+                entry.setData(null, new Episode[0], folder.modified);
+                continue;
+            }
+            batch.add(entry);
+            if (batch.size() >= BatchSize) {
+                publish(listener, batch);
+                batch = new ArrayList<>();
+            }
+        }
+        publish(listener, batch);
+        return entries;
+    }
+
+    static synchronized ForkJoinPool getScanPool() {
+        if (sScanPool == null) {
+            // Listing folders mostly waits on storage so allow more threads than cores
+            int parallelism = Math.min(MaxScanThreads,
+                    Runtime.getRuntime().availableProcessors() * 2);
+            sScanPool = new ForkJoinPool(parallelism,
+                    new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+                        @Override
+                        public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                            return new ScanWorkerThread(pool);
+                        }
+                    }, null, false);
+        }
+        return sScanPool;
+    }
+
+    /**
+     * Fork/join worker that lists folders at background priority like the indexing lane
+     */
+    private static class ScanWorkerThread extends ForkJoinWorkerThread {
+        ScanWorkerThread(ForkJoinPool pool) {
+            super(pool);
+        }
+
+        @Override
+        protected void onStart() {
+            super.onStart();
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        }
+    }
+
+    static void throwIfCanceled(CancellationSignal signal) {
+        if (signal != null) {
+            signal.throwIfCanceled();
+        }
+    }
+
+    private static boolean addIfHasSubtitles(List<VideoEntry> entries, VideoEntry entry) {
+        if (!entry.isResolved() || entry.getNumSubs() > 0) {
+            entries.add(entry);
+            return true;
+        }
+        Log.w(TAG, "Ignore folder '" + entry.getPath() + "' because no subtitles were found");
+        return false;
+    }
+
+    /**
+     * Sends the entries of the freshly listed folders that have subtitles to the listener.
+     */
+    static void publishFound(Listener listener, List<VideoEntry> reloaded) {
+        if (listener != null) {
+            List<VideoEntry> batch = new ArrayList<>(reloaded.size());
+            for (VideoEntry entry : reloaded) {
+                if (!entry.isResolved() || entry.getNumSubs() > 0) {
+                    batch.add(entry);
+                }
+            }
+            publish(listener, batch);
+        }
+    }
+
+    private static void publish(Listener listener, List<VideoEntry> batch) {
+        if (listener != null && !batch.isEmpty()) {
+            listener.onEntriesFound(batch);
+        }
+    }
+
+    private void load() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            if (in.readInt() != VERSION) {
+                Log.w(TAG, "Ignored library index with an old version");
+                return;
+            }
+            mRootPath = in.readUTF();
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                VideoEntry entry = new VideoEntry(in);
+                mEntries.put(entry.getPath(), entry);
+            }
+        } catch (FileNotFoundException ignored) {
+        } catch (IOException e) {
+            e.printStackTrace();
+            Log.w(TAG, "Unable to read library index, will rescan all folders");
+            mEntries.clear();
+            mRootPath = null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private void save() {
+        if (!mDirty) {
+            return;
+        }
+
+        // Write to a temporary file and swap it in so a failed write never corrupts the index
+        File tmpFile = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            out.writeInt(VERSION);
+            out.writeUTF(mRootPath);
+            out.writeInt(mEntries.size());
+            for (VideoEntry entry : mEntries.values()) {
+                entry.writeTo(out);
+            }
+            out.close();
+            out = null;
+            if (tmpFile.renameTo(mFile)) {
+                mDirty = false;
+            } else {
+                Log.w(TAG, "Unable to replace the library index");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            Log.w(TAG, "Unable to write library index");
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
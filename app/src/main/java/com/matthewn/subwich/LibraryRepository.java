@@ -0,0 +1,89 @@
+package com.matthewn.subwich;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory library that is shared by all the screens of the app, keyed by the name of each
+ * series. Screens pass the name of a series instead of the whole entry so the episodes that were
+ * already scanned can be reused without reading the folder again.
+ */
+public class LibraryRepository {
+    private final Map<String, VideoEntry> mEntries = new HashMap<>();
+    private final List<Listener> mListeners = new ArrayList<>();
+
+    public interface Listener {
+        /**
+         * Called on the main thread when a screen listed a series again into a copy
+         * @param entry the copy that replaced the series
+         */
+        public void onEntryReplaced(VideoEntry entry);
+    }
+
+    /**
+     * Must be called on the main thread
+     */
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    /**
+     * Must be called on the main thread
+     */
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    public synchronized VideoEntry get(String name) {
+        return mEntries.get(name);
+    }
+
+    public synchronized boolean isEmpty() {
+        return mEntries.isEmpty();
+    }
+
+    public synchronized void put(VideoEntry entry) {
+        mEntries.put(entry.getName(), entry);
+    }
+
+    public synchronized void putAll(Collection<VideoEntry> entries) {
+        for (VideoEntry entry : entries) {
+            mEntries.put(entry.getName(), entry);
+        }
+    }
+
+    /**
+     * Swaps in the copy of a series that a screen listed again, so the screens that show the
+     * series replace it instead of it being changed while they bind it. Must be called on the
+     * main thread.
+     * @param entry the listed copy of the series
+     */
+    public void replace(VideoEntry entry) {
+        put(entry);
+        for (Listener listener : new ArrayList<>(mListeners)) {
+            listener.onEntryReplaced(entry);
+        }
+    }
+
+    /**
+     * Replaces the whole library after a scan has finished
+     * @param entries all the entries of the library
+     */
+    public synchronized void replaceAll(Collection<VideoEntry> entries) {
+        mEntries.clear();
+        putAll(entries);
+    }
+
+    public synchronized void remove(VideoEntry entry) {
+        if (mEntries.get(entry.getName()) == entry) {
+            mEntries.remove(entry.getName());
+        }
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+    }
+}
@@ -0,0 +1,111 @@
+package com.matthewn.subwich;
+
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compact copy of the last sorted library list. It is saved after every scan so that the next
+ * cold start can show the grid on the first frame while the library is revalidated in the
+ * background.
+ */
+public class LibrarySnapshot {
+    private static final String TAG = "LibrarySnapshot";
+    private static final int VERSION = 6;
+
+    private final File mFile;
+
+    public LibrarySnapshot(File file) {
+        mFile = file;
+    }
+
+    /**
+     * @param rootPaths the subtitles roots of the library
+     * @return the key that identifies a library of all these roots
+     */
+    public static String keyOf(List<String> rootPaths) {
+        return TextUtils.join("\n", rootPaths);
+    }
+
+    /**
+     * Reads the snapshot, it is small enough to read while creating the activity.
+     * @param rootPath key of the current subtitles roots, a snapshot of other roots is ignored
+     * @return the sorted entries or an empty list if there is no valid snapshot
+     */
+    public List<VideoEntry> read(String rootPath) {
+        List<VideoEntry> entries = new ArrayList<>();
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            if (in.readInt() != VERSION || !in.readUTF().equals(rootPath)) {
+                return entries;
+            }
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                entries.add(new VideoEntry(in));
+            }
+        } catch (FileNotFoundException ignored) {
+        } catch (IOException e) {
+            e.printStackTrace();
+            Log.w(TAG, "Unable to read library snapshot");
+            entries.clear();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Sorts and saves the entries, must not be called from the main thread.
+     * @param rootPath key of the subtitles roots the entries were scanned from
+     * @param entries entries of the library
+     */
+    public void write(String rootPath, List<VideoEntry> entries) {
+        List<VideoEntry> sorted = new ArrayList<>(entries);
+        Collections.sort(sorted, VideoEntry.SortComparator);
+
+        File tmpFile = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            out.writeInt(VERSION);
+            out.writeUTF(rootPath);
+            out.writeInt(sorted.size());
+            for (VideoEntry entry : sorted) {
+                entry.writeTo(out);
+            }
+            out.close();
+            out = null;
+            if (!tmpFile.renameTo(mFile)) {
+                Log.w(TAG, "Unable to replace the library snapshot");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            Log.w(TAG, "Unable to write library snapshot");
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
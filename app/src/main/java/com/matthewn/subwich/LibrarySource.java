@@ -0,0 +1,181 @@
+package com.matthewn.subwich;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.CancellationSignal;
+import android.preference.PreferenceManager;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Where the series folders of the library are read from. The subtitles root is either a folder
+ * on the file system, found through the media store with the file system as a fallback, or a
+ * document tree uri for volumes that cannot be read as files.
+ */
+public abstract class LibrarySource {
+    private boolean mLazy;
+
+    public static class Folder {
+        public final String path;
+        public final String name;
+        public final long modified;
+        public final int depth;
+
+        public Folder(String path, String name, long modified) {
+            this(path, name, modified, 1);
+        }
+
+        /**
+         * @param path path or uri of the folder
+         * @param name title of the folder, nested folders include the titles of their parents
+         * @param modified modified time of the folder
+         * @param depth 1 for the folders directly inside the root
+         */
+        public Folder(String path, String name, long modified, int depth) {
+            this.path = path;
+            this.name = name;
+            this.modified = modified;
+            this.depth = depth;
+        }
+    }
+
+    /**
+     * @param context context to query documents with
+     * @param rootPath absolute path of the root folder or the document uri of the root
+     * @return the source that can read the root
+     */
+    public static LibrarySource create(Context context, String rootPath) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        LibrarySource source;
+        if (rootPath.startsWith(ContentResolver.SCHEME_CONTENT + "://")) {
+            source = new DocumentLibrarySource(context.getContentResolver(), rootPath);
+        } else {
+            boolean nested = prefs.getBoolean(
+                    context.getString(R.string.settings_nested_folders), false);
+            source = new MediaStoreLibrarySource(context.getContentResolver(), rootPath,
+                    nested ? FileLibrarySource.NestedMaxDepth : 1);
+        }
+        source.mLazy = prefs.getBoolean(context.getString(R.string.settings_lazy_loading), false);
+        return source;
+    }
+
+    /**
+     * Lists the folder of a series outside of a scan, such as when its episodes are shown, with
+     * a file or document source picked by the scheme of its path. No library settings are read
+     * since only the folder itself is listed. Must not be called from the main thread.
+     * @param context context to query documents with
+     * @param entry entry to reload
+     */
+    public static void reloadFolder(Context context, VideoEntry entry) {
+        forFolder(context, entry.getPath()).reload(entry, 0);
+    }
+
+    /**
+     * @param context context to query documents with
+     * @param folderPath path or document uri of a series folder
+     * @return modified time of the folder, 0 or less if it is not known
+     */
+    public static long getFolderModified(Context context, String folderPath) {
+        return forFolder(context, folderPath).getModified(folderPath);
+    }
+
+    /**
+     * A series folder is only ever listed on its own, so the folder stands in for the root
+     */
+    private static LibrarySource forFolder(Context context, String folderPath) {
+        if (folderPath.startsWith(ContentResolver.SCHEME_CONTENT + "://")) {
+            return new DocumentLibrarySource(context.getContentResolver(), folderPath);
+        }
+        return new FileLibrarySource(new File(folderPath).getParent());
+    }
+
+    /**
+     * @return whether new and changed folders are listed only when their row is shown instead
+     *         of while scanning
+     */
+    public boolean isLazy() {
+        return mLazy;
+    }
+
+    /**
+     * @return path or uri of the root that identifies this library
+     */
+    public abstract String getRootPath();
+
+    /**
+     * @param folderPath path or uri of a series folder
+     * @return whether the folder is inside the root
+     */
+    public boolean contains(String folderPath) {
+        return folderPath.startsWith(getRootPath() + "/");
+    }
+
+    /**
+     * @return display name of the root
+     */
+    public abstract String getRootName();
+
+    /**
+     * @return id of the storage volume the root is on, roots on the same volume are scanned one
+     *         after the other
+     */
+    public abstract String getVolumeId();
+
+    /**
+     * @return whether the root exists and can be read
+     */
+    public abstract boolean isReadable();
+
+    /**
+     * Lists the series folders directly inside the root
+     * @return the folders or null if the root cannot be read
+     */
+    public abstract List<Folder> listFolders();
+
+    /**
+     * Lists the folders one level below the given folders, for sources that scan nested season
+     * folders. Must not be called from the main thread.
+     * @param folders folders of the same depth
+     * @param signal optional signal to cancel the listing
+     * @return the child folders or an empty list if the folders are not scanned deeper
+     */
+    public List<Folder> listSubfolders(List<Folder> folders, CancellationSignal signal) {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Tells whether a folder found while loading on demand may be a series without listing it
+     * for its episodes, so folders that only hold season folders are not shown as rows
+     * @param folder folder found while scanning
+     * @return false if the folder surely has no subtitles
+     */
+    public boolean mayHaveSubtitles(Folder folder) {
+        return true;
+    }
+
+    /**
+     * @param folderPath path of a series folder
+     * @return modified time of the folder or 0 if it cannot be read
+     */
+    public abstract long getModified(String folderPath);
+
+    /**
+     * Lists the folder of the entry and updates its cover and episodes
+     * @param entry entry to reload
+     * @param modified modified time of the folder if already known, otherwise 0
+     */
+    public abstract void reload(VideoEntry entry, long modified);
+
+    /**
+     * @param folder series folder
+     * @return a new entry for the folder with its cover and episodes loaded
+     */
+    public VideoEntry load(Folder folder) {
+        VideoEntry entry = new VideoEntry(folder.path, folder.name);
+        reload(entry, folder.modified);
+        return entry;
+    }
+}
@@ -0,0 +1,290 @@
+package com.matthewn.subwich;
+
+import android.os.FileObserver;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Watches the subtitles root and the folders inside it down to the depth that is scanned, so
+ * that only the affected series need to be reloaded instead of the whole library. Folders that
+ * hold other folders, such as Series in Series/Season 1, are watched for folders created or
+ * removed inside them and every folder below the root is watched for its subtitles, including
+ * subtitles that are overwritten in place. Events are collected for a short time and then sent
+ * to the listener on the main thread.
+ */
+public class LibraryWatcher {
+    private static final String TAG = "LibraryWatcher";
+    private static final int RootEvents = FileObserver.CREATE | FileObserver.DELETE
+            | FileObserver.MOVED_FROM | FileObserver.MOVED_TO | FileObserver.DELETE_SELF;
+    private static final int FolderEvents = FileObserver.CREATE | FileObserver.DELETE
+            | FileObserver.MOVED_FROM | FileObserver.MOVED_TO | FileObserver.CLOSE_WRITE;
+    private static final long DispatchDelay = 500;
+
+    public interface Listener {
+        /**
+         * A new folder was created or moved into the root or one of its folders
+         * @param folder the new folder
+         */
+        public void onFolderAdded(File folder);
+
+        /**
+         * A folder was deleted or moved out of the root, along with the folders inside it
+         * @param path absolute path of the folder
+         */
+        public void onFolderRemoved(String path);
+
+        /**
+         * Subtitles or covers inside a folder were created, deleted, moved or rewritten
+         * @param path absolute path of the folder
+         */
+        public void onFolderChanged(String path);
+    }
+
+    private final Listener mListener;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Map<String, FolderObserver> mObservers = new HashMap<>();
+    private final Set<String> mAddedFolders = new LinkedHashSet<>();
+    private final Set<String> mRemovedFolders = new LinkedHashSet<>();
+    private final Set<String> mChangedFolders = new LinkedHashSet<>();
+    private FolderObserver mRootObserver;
+    private volatile int mMaxDepth;
+
+    private static final FileFilter FolderFilter = new FileFilter() {
+        @Override
+        public boolean accept(File file) {
+            return file.isDirectory();
+        }
+    };
+
+    private final Runnable mDispatchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            dispatchEvents();
+        }
+    };
+
+    public LibraryWatcher(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Starts watching the root and its folders, any previous watch is stopped. This lists the
+     * folders so it should not be called from the main thread.
+     * @param root the subtitles root folder
+     * @param maxDepth deepest level of folders that is scanned, 1 for only the folders inside
+     *                 the root
+     */
+    public void startWatching(File root, int maxDepth) {
+        stopWatching();
+        synchronized (mObservers) {
+            mMaxDepth = maxDepth;
+            mRootObserver = new FolderObserver(root.getAbsolutePath(), RootEvents, 0);
+            mRootObserver.startWatching();
+            watchFolders(root, 1, null);
+            Log.v(TAG, "Watching " + mObservers.size() + " folders in " + root.getAbsolutePath());
+        }
+    }
+
+    public void stopWatching() {
+        synchronized (mObservers) {
+            if (mRootObserver != null) {
+                mRootObserver.stopWatching();
+                mRootObserver = null;
+            }
+            for (FolderObserver observer : mObservers.values()) {
+                observer.stopWatching();
+            }
+            mObservers.clear();
+        }
+        mMainHandler.removeCallbacks(mDispatchRunnable);
+        synchronized (mChangedFolders) {
+            mAddedFolders.clear();
+            mRemovedFolders.clear();
+            mChangedFolders.clear();
+        }
+    }
+
+    /**
+     * Watches the folders inside the parent and the folders inside those down to the maximum
+     * depth
+     * @param depth depth of the folders inside the parent
+     * @param watched collects the paths of the folders that were not watched before, may be null
+     */
+    private void watchFolders(File parent, int depth, Set<String> watched) {
+        if (depth > mMaxDepth) {
+            return;
+        }
+        File[] folders = parent.listFiles(FolderFilter);
+        if (folders == null) {
+            return;
+        }
+        for (File folder : folders) {
+            watchFolder(folder, depth, watched);
+        }
+    }
+
+    private void watchFolder(File folder, int depth, Set<String> watched) {
+        String path = folder.getAbsolutePath();
+        synchronized (mObservers) {
+            if (mObservers.containsKey(path)) {
+                return;
+            }
+            FolderObserver observer = new FolderObserver(path, FolderEvents, depth);
+            observer.startWatching();
+            mObservers.put(path, observer);
+        }
+        if (watched != null) {
+            watched.add(path);
+        }
+        watchFolders(folder, depth + 1, watched);
+    }
+
+    /**
+     * Stops watching the folder and the folders inside it
+     */
+    private void unwatchFolder(String path) {
+        String prefix = path + "/";
+        synchronized (mObservers) {
+            Iterator<Map.Entry<String, FolderObserver>> it = mObservers.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, FolderObserver> observer = it.next();
+                if (observer.getKey().equals(path) || observer.getKey().startsWith(prefix)) {
+                    observer.getValue().stopWatching();
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    private boolean isWatched(String path) {
+        synchronized (mObservers) {
+            return mObservers.containsKey(path);
+        }
+    }
+
+    private void onEvent(int event, String folderPath, int depth, String name) {
+        if ((event & FileObserver.DELETE_SELF) != 0) {
+            Log.w(TAG, "Subtitles root was deleted, stop watching");
+            return;
+        }
+        if (name == null) {
+            return;
+        }
+        String path = folderPath + "/" + name;
+        if ((event & (FileObserver.CREATE | FileObserver.MOVED_TO)) != 0) {
+            File file = new File(path);
+            if (file.isDirectory()) {
+                if (depth < mMaxDepth) {
+                    onFolderCreated(file, depth + 1);
+                }
+                return;
+            }
+        } else if (isWatched(path)) {
+            onFolderDeleted(path);
+            return;
+        }
+
+        // Files in the root are not part of any series
+        if (depth > 0 && (name.endsWith(".srt") || name.endsWith(".zip")
+                || name.startsWith("cover.") || name.startsWith("image."))) {
+            synchronized (mChangedFolders) {
+                if (!mAddedFolders.contains(folderPath)) {
+                    mChangedFolders.add(folderPath);
+                }
+            }
+            scheduleDispatch();
+        }
+    }
+
+    /**
+     * Watches a folder that was created or moved in, a folder moved in may already hold
+     * season folders which are added too
+     */
+    private void onFolderCreated(File folder, int depth) {
+        Set<String> watched = new LinkedHashSet<>();
+        watchFolder(folder, depth, watched);
+        synchronized (mChangedFolders) {
+            for (String path : watched) {
+                mRemovedFolders.remove(path);
+                mAddedFolders.add(path);
+            }
+        }
+        scheduleDispatch();
+    }
+
+    private void onFolderDeleted(String path) {
+        unwatchFolder(path);
+        String prefix = path + "/";
+        synchronized (mChangedFolders) {
+            removeFolder(mAddedFolders, path, prefix);
+            removeFolder(mChangedFolders, path, prefix);
+            mRemovedFolders.add(path);
+        }
+        scheduleDispatch();
+    }
+
+    private static void removeFolder(Set<String> paths, String path, String prefix) {
+        Iterator<String> it = paths.iterator();
+        while (it.hasNext()) {
+            String other = it.next();
+            if (other.equals(path) || other.startsWith(prefix)) {
+                it.remove();
+            }
+        }
+    }
+
+    private void scheduleDispatch() {
+        // Wait until a burst of events finishes, copying many files fires an event for each
+        mMainHandler.removeCallbacks(mDispatchRunnable);
+        mMainHandler.postDelayed(mDispatchRunnable, DispatchDelay);
+    }
+
+    private void dispatchEvents() {
+        Set<String> added, removed, changed;
+        synchronized (mChangedFolders) {
+            added = new LinkedHashSet<>(mAddedFolders);
+            removed = new LinkedHashSet<>(mRemovedFolders);
+            changed = new LinkedHashSet<>(mChangedFolders);
+            mAddedFolders.clear();
+            mRemovedFolders.clear();
+            mChangedFolders.clear();
+        }
+        for (String path : removed) {
+            mListener.onFolderRemoved(path);
+        }
+        for (String path : added) {
+            mListener.onFolderAdded(new File(path));
+        }
+        for (String path : changed) {
+            mListener.onFolderChanged(path);
+        }
+    }
+
+    private class FolderObserver extends FileObserver {
+        private final String mPath;
+        private final int mDepth;
+
+        /**
+         * @param depth 0 for the root, 1 for the folders inside it and so on
+         */
+        FolderObserver(String path, int mask, int depth) {
+            super(path, mask);
+            mPath = path;
+            mDepth = depth;
+        }
+
+        @Override
+        public void onEvent(int event, String name) {
+            LibraryWatcher.this.onEvent(event, mPath, mDepth, name);
+        }
+    }
+}
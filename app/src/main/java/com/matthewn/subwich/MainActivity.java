@@ -11,7 +11,6 @@ import android.graphics.Color;
 import android.graphics.PorterDuff;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.provider.DocumentsContract;
@@ -19,47 +18,51 @@ import android.support.annotation.NonNull;
 import android.support.v4.app.SharedElementCallback;
 import android.support.v4.widget.SwipeRefreshLayout;
 import android.support.v7.widget.GridLayoutManager;
+import android.text.format.DateUtils;
 import android.transition.Transition;
-import android.util.Log;
 import android.util.Pair;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.view.Window;
 import android.widget.Button;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import com.matthewn.subwich.ui.EnhancedRecyclerView;
 import com.matthewn.subwich.ui.RecyclerViewAdapterListener;
 import com.matthewn.subwich.ui.SpacesItemDecoration;
+import com.miguelcatalan.materialsearchview.MaterialSearchView;
 
 import java.io.File;
-import java.io.FileFilter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
 public class MainActivity extends UsbDetectionActivity implements RecyclerViewAdapterListener,
-        SwipeRefreshLayout.OnRefreshListener {
+        SwipeRefreshLayout.OnRefreshListener, LibraryFragment.Callbacks {
     private static final String TAG = "MainActivity";
+    private static final int LibraryPageSize = 60;
     private static final int REQUEST_CODE_SUBTITLES_FOLDER = REQUEST_CODE_SETUP_USB  + 1;
+    private static final int REQUEST_CODE_ADD_SUBTITLES_FOLDER = REQUEST_CODE_SUBTITLES_FOLDER + 1;
+    private static final int REQUEST_CODE_IMPORT_FOLDER = REQUEST_CODE_ADD_SUBTITLES_FOLDER + 1;
 
     private EnhancedRecyclerView mRecyclerView;
     private VideoListAdapter mAdapter;
     private GridLayoutManager mLayoutManager;
-    private View mEmptyView;
+    private TextView mEmptyView;
     private Button mWritePermButton;
     private SwipeRefreshLayout mSwipeRefreshLayout;
     private Dialog mSubtitleSelectMessageDialog;
+    private MaterialSearchView mSearchView;
+    private String mSearchQuery;
 
     private SharedPreferences mPrefs;
 
-    private final FileFilter mFolderFilter = new FileFilter() {
-        @Override
-        public boolean accept(File file) {
-            return file.isDirectory();
-        }
-    };
+    private LibraryFragment mLibrary;
+    private boolean mStreamEntries;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -69,7 +72,7 @@ public class MainActivity extends UsbDetectionActivity implements RecyclerViewAd
         mRecyclerView = (EnhancedRecyclerView) findViewById(R.id.recycleview);
         mSwipeRefreshLayout = (SwipeRefreshLayout) findViewById(R.id.swiperefresh);
         mSwipeRefreshLayout.setOnRefreshListener(this);
-        mEmptyView = findViewById(R.id.emptytext);
+        mEmptyView = (TextView) findViewById(R.id.emptytext);
         mWritePermButton = (Button) findViewById(R.id.requestwritepermissionsbutton);
         mLayoutManager = new GridLayoutManager(this, 1);
 
@@ -83,10 +86,70 @@ public class MainActivity extends UsbDetectionActivity implements RecyclerViewAd
                 verticalPadding);
         mAdapter = new VideoListAdapter();
         mAdapter.setAdapterListener(this);
+        mAdapter.setPageSize(LibraryPageSize);
         mRecyclerView.setAdapter(mAdapter);
+        mRecyclerView.setLoadMoreListener(new EnhancedRecyclerView.LoadMoreListener() {
+            @Override
+            public void loadMoreRequested() {
+                if (!mAdapter.hasMorePages()) {
+                    mRecyclerView.notifyLoadFinished();
+                    return;
+                }
+                mAdapter.showNextPage(getBackgroundExecutor(BackgroundExecutor.LANE_LOADING),
+                        new Runnable() {
+                    @Override
+                    public void run() {
+                        mRecyclerView.notifyLoadFinished();
+                    }
+                });
+            }
+        });
+        mLibrary = LibraryFragment.attach(this);
+        mAdapter.setEntryResolver(mLibrary);
+
+        mSearchView = (MaterialSearchView) findViewById(R.id.search_view);
+        mSearchView.setHint(getString(R.string.hint_search));
+        mSearchView.setOnQueryTextListener(new MaterialSearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                searchDialogue(query);
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                search(newText);
+                return true;
+            }
+        });
+        mSearchView.setOnSearchViewListener(new MaterialSearchView.SearchViewListener() {
+            @Override
+            public void onSearchViewShown() {
+            }
+
+            @Override
+            public void onSearchViewClosed() {
+                search(null);
+            }
+        });
 
         if (hasStoragePermissions()) {
-            loadFiles();
+            if (mLibrary.hasLibrary()) {
+                // Recreated, reuse the library and any scan that is still running
+                List<LibrarySource> sources = createSources();
+                if (!sources.isEmpty()) {
+                    showRootsTitle(sources);
+                }
+                mStreamEntries = mLibrary.isFirstLoad();
+                showLibrary(mLibrary.getEntries());
+                if (!mLibrary.isLoading()) {
+                    loadFinished();
+                }
+            } else {
+                // Show the last known library right away and revalidate it in the background
+                showSnapshot();
+                loadFiles();
+            }
         } else {
             mSwipeRefreshLayout.setEnabled(false);
             mWritePermButton.setVisibility(View.VISIBLE);
@@ -125,7 +188,8 @@ public class MainActivity extends UsbDetectionActivity implements RecyclerViewAd
         }
         ActivityOptions options = ActivityOptions
                 .makeSceneTransitionAnimation(this, p1, p2, p3, p4);
-        in.putExtra(SubtitleListingActivity.FILE_PATH_EXTRA, mAdapter.getEntry(position));
+        in.putExtra(SubtitleListingActivity.ENTRY_NAME_EXTRA,
+                mAdapter.getEntry(position).getName());
         startActivity(in, options.toBundle());
     }
 
@@ -145,6 +209,22 @@ public class MainActivity extends UsbDetectionActivity implements RecyclerViewAd
         }
     }
 
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        boolean created = super.onCreateOptionsMenu(menu);
+        mSearchView.setMenuItem(menu.findItem(R.id.action_search));
+        return created;
+    }
+
+    @Override
+    public void onBackPressed() {
+        if (mSearchView.isSearchOpen()) {
+            mSearchView.closeSearch();
+        } else {
+            super.onBackPressed();
+        }
+    }
+
     @Override
     public boolean onPrepareOptionsMenu(Menu menu) {
         // Set the disabled state when no storage permissions are valid
@@ -156,6 +236,18 @@ public class MainActivity extends UsbDetectionActivity implements RecyclerViewAd
         }
         changeFolderItem.setEnabled(hasStoragePermissions());
         changeFolderItem.setIcon(resIcon);
+        menu.findItem(R.id.action_add_folder).setEnabled(hasStoragePermissions());
+        menu.findItem(R.id.action_import).setEnabled(hasStoragePermissions());
+
+        MenuItem nestedFoldersItem = menu.findItem(R.id.action_nested_folders);
+        nestedFoldersItem.setEnabled(hasStoragePermissions());
+        nestedFoldersItem.setChecked(mPrefs.getBoolean(
+                getString(R.string.settings_nested_folders), false));
+
+        MenuItem lazyLoadingItem = menu.findItem(R.id.action_lazy_loading);
+        lazyLoadingItem.setEnabled(hasStoragePermissions());
+        lazyLoadingItem.setChecked(mPrefs.getBoolean(
+                getString(R.string.settings_lazy_loading), false));
         return super.onPrepareOptionsMenu(menu);
     }
 
@@ -167,6 +259,28 @@ public class MainActivity extends UsbDetectionActivity implements RecyclerViewAd
                         .show();
                 selectSubtitlesFolder();
                 return true;
+            case R.id.action_add_folder:
+                selectFolder(REQUEST_CODE_ADD_SUBTITLES_FOLDER);
+                return true;
+            case R.id.action_import:
+                Toast.makeText(this, R.string.message_select_import_folder, Toast.LENGTH_SHORT)
+                        .show();
+                selectFolder(REQUEST_CODE_IMPORT_FOLDER);
+                return true;
+            case R.id.action_nested_folders:
+                // Rescan with the new mode, folders already listed are reused from the index
+                item.setChecked(!item.isChecked());
+                mPrefs.edit().putBoolean(getString(R.string.settings_nested_folders),
+                        item.isChecked()).apply();
+                mSwipeRefreshLayout.setRefreshing(true);
+                loadFiles();
+                return true;
+            case R.id.action_lazy_loading:
+                // Only affects folders that are new or changed on the next scans
+                item.setChecked(!item.isChecked());
+                mPrefs.edit().putBoolean(getString(R.string.settings_lazy_loading),
+                        item.isChecked()).apply();
+                return true;
         }
         return super.onOptionsItemSelected(item);
     }
@@ -176,18 +290,82 @@ public class MainActivity extends UsbDetectionActivity implements RecyclerViewAd
     public final void onActivityResult(int requestCode, int resultCode, Intent resultData) {
         super.onActivityResult(requestCode, resultCode, resultData);
         if (requestCode == REQUEST_CODE_SUBTITLES_FOLDER && resultCode == Activity.RESULT_OK) {
-            // Save the selected folder as the subtitles folder
-            Uri treeUri = resultData.getData();
-            Uri docUri = DocumentsContract.buildDocumentUriUsingTree(treeUri,
-                    DocumentsContract.getTreeDocumentId(treeUri));
-            String path = UriUtils.getPath(this, docUri);
-            mPrefs.edit().putString(getString(R.string.settings_subtitles_folder), path).apply();
+            // Save the selected folder as the only subtitles folder
+            SubwichApplication.get(this).setSubtitleRoots(
+                    Collections.singletonList(getSelectedFolderPath(resultData)));
 
             // Load after selecting a new folder
+            mLibrary.clear();
+            mAdapter.clear();
+            mAdapter.notifyDataSetChanged();
             loadFiles();
+        } else if (requestCode == REQUEST_CODE_ADD_SUBTITLES_FOLDER
+                && resultCode == Activity.RESULT_OK) {
+            // Series already shown stay until the scan of all folders is merged
+            List<String> roots = SubwichApplication.get(this).getSubtitleRoots();
+            String path = getSelectedFolderPath(resultData);
+            if (!roots.contains(path)) {
+                roots.add(path);
+                SubwichApplication.get(this).setSubtitleRoots(roots);
+                mSwipeRefreshLayout.setRefreshing(true);
+                loadFiles();
+            }
+        } else if (requestCode == REQUEST_CODE_IMPORT_FOLDER && resultCode == Activity.RESULT_OK) {
+            Uri treeUri = resultData.getData();
+            String path = UriUtils.getPath(this, DocumentsContract.buildDocumentUriUsingTree(
+                    treeUri, DocumentsContract.getTreeDocumentId(treeUri)));
+            if (path == null) {
+                Toast.makeText(this, R.string.message_import_folder_not_valid,
+                        Toast.LENGTH_SHORT).show();
+            } else {
+                importSubtitles(new File(path));
+            }
         }
     }
 
+    /**
+     * Moves the subtitles of the inbox into their series and rescans the library
+     * @param inbox folder with the downloaded subtitles
+     */
+    private void importSubtitles(final File inbox) {
+        final List<VideoEntry> entries = new ArrayList<>(mLibrary.getEntries());
+        mSwipeRefreshLayout.setRefreshing(true);
+        runInBackground(BackgroundExecutor.LANE_LOADING, new Runnable() {
+            @Override
+            public void run() {
+                final SubtitleImporter.Result result = new SubtitleImporter(entries)
+                        .importFolder(inbox);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(getApplicationContext(), getString(
+                                R.string.message_import_result, result.imported,
+                                result.unmatched + result.conflicts), Toast.LENGTH_LONG).show();
+                        loadFiles();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * @param resultData result of the folder picker
+     * @return path of the picked folder, or its document uri if it cannot be read as a file
+     */
+    private String getSelectedFolderPath(Intent resultData) {
+        Uri treeUri = resultData.getData();
+        Uri docUri = DocumentsContract.buildDocumentUriUsingTree(treeUri,
+                DocumentsContract.getTreeDocumentId(treeUri));
+        String path = UriUtils.getPath(this, docUri);
+        if (path == null) {
+            // Volumes other than the primary storage are read through the tree uri directly
+            getContentResolver().takePersistableUriPermission(treeUri,
+                    Intent.FLAG_GRANT_READ_URI_PERMISSION);
+            path = docUri.toString();
+        }
+        return path;
+    }
+
     @Override
     public void onActivityReenter(int resultCode, Intent data) {
         super.onActivityReenter(resultCode, data);
@@ -196,16 +374,28 @@ public class MainActivity extends UsbDetectionActivity implements RecyclerViewAd
         // that was last moved to the top of the list and update the transition
         if (data != null
                 && data.getBooleanExtra(SubtitleListingActivity.RETURN_HAS_WRITTEN_EXTRA, false)) {
-            // Resort the entries
-            for (int i = 0; i < mAdapter.getItemCount(); i++) {
-                VideoEntry entry = mAdapter.getEntry(i);
+            // Resort the entries, the return transition waits for the series to move to the top
+            for (VideoEntry entry : mAdapter.getAllEntries()) {
                 entry.setLastUsed(getTimestamp(entry));
             }
-            mAdapter.sort();
-            mAdapter.notifyDataSetChanged();
-
-            // Scroll to the top to do this animation
-            mRecyclerView.scrollToPosition(0);
+            postponeEnterTransition();
+            mAdapter.resort(getBackgroundExecutor(BackgroundExecutor.LANE_LOADING),
+                    new Runnable() {
+                @Override
+                public void run() {
+                    // Scroll to the top to do this animation
+                    mRecyclerView.scrollToPosition(0);
+                    mRecyclerView.getViewTreeObserver().addOnPreDrawListener(
+                            new ViewTreeObserver.OnPreDrawListener() {
+                        @Override
+                        public boolean onPreDraw() {
+                            mRecyclerView.getViewTreeObserver().removeOnPreDrawListener(this);
+                            startPostponedEnterTransition();
+                            return true;
+                        }
+                    });
+                }
+            });
             setExitSharedElementCallback(new SharedElementCallback() {
                 @Override
                 public void onMapSharedElements(List<String> names, Map<String, View> elements) {
@@ -247,13 +437,150 @@ public class MainActivity extends UsbDetectionActivity implements RecyclerViewAd
         }
     }
 
+    @Override
+    public void onLibraryBatch(List<VideoEntry> entries) {
+        if (mStreamEntries) {
+            mAdapter.insertSorted(entries);
+            updateEmptyView();
+        }
+    }
+
+    @Override
+    public void onLibraryLoaded(List<VideoEntry> entries) {
+        mStreamEntries = false;
+        mAdapter.applyDifferences(entries, getBackgroundExecutor(BackgroundExecutor.LANE_LOADING),
+                new Runnable() {
+            @Override
+            public void run() {
+                loadFinished();
+            }
+        });
+    }
+
+    @Override
+    public void onLibraryRootInvalid() {
+        mStreamEntries = false;
+        mAdapter.clear();
+        mAdapter.notifyDataSetChanged();
+        loadFinished();
+        Toast.makeText(this, R.string.message_subtitles_folder_not_valid, Toast.LENGTH_SHORT)
+                .show();
+        selectSubtitlesFolder();
+    }
+
+    @Override
+    public void onLibraryEntryAdded(VideoEntry entry) {
+        if (!mAdapter.containsPath(entry.getPath())) {
+            mAdapter.insertSorted(Collections.singletonList(entry));
+            updateEmptyView();
+        }
+    }
+
+    @Override
+    public void onLibraryEntryRemoved(String path) {
+        int position = mAdapter.removePath(path);
+        if (position >= 0) {
+            mAdapter.notifyItemRemoved(position);
+            updateEmptyView();
+        }
+    }
+
+    @Override
+    public void onLibraryEntryChanged(VideoEntry entry) {
+        // Only rebind this row
+        int position = mAdapter.replaceEntry(entry);
+        if (position >= 0) {
+            mAdapter.notifyItemChanged(position);
+        }
+    }
+
+    @Override
+    public void onTitleIndexChanged() {
+        // Series added or removed while searching are already filtered, this only picks up
+        // the titles of the series that were added
+        if (mSearchQuery != null) {
+            search(mSearchQuery);
+        }
+    }
+
+    /**
+     * Shows only the series whose title matches, the list is filtered in place
+     * @param query text typed in the search view, null or empty shows all the series
+     */
+    private void search(String query) {
+        mSearchQuery = query;
+        mAdapter.setFilter(query != null ? mLibrary.getTitleIndex().search(query) : null);
+        updateEmptyView();
+    }
+
+    private void updateEmptyView() {
+        mEmptyView.setText(mAdapter.isFiltered() ? R.string.message_no_search_results
+                : R.string.message_no_subtitles_in_folder);
+        mEmptyView.setVisibility(mAdapter.getItemCount() == 0 && !mLibrary.isFirstLoad()
+                ? View.VISIBLE : View.GONE);
+    }
+
+    /**
+     * Looks for the dialogue in the index of all the subtitles and lists the cues found
+     * @param query words said in the episode
+     */
+    private void searchDialogue(final String query) {
+        final DialogueIndex index = SubwichApplication.get(this).getDialogueIndex();
+        runInBackground(BackgroundExecutor.LANE_LOADING, new Runnable() {
+            @Override
+            public void run() {
+                final List<DialogueIndex.Hit> hits = index.search(query);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        showDialogueHits(hits);
+                    }
+                });
+            }
+        });
+    }
+
+    private void showDialogueHits(List<DialogueIndex.Hit> hits) {
+        // Leave out series that are no longer in the library
+        final List<DialogueIndex.Hit> shownHits = new ArrayList<>(hits.size());
+        List<CharSequence> labels = new ArrayList<>(hits.size());
+        for (DialogueIndex.Hit hit : hits) {
+            VideoEntry entry = SubwichApplication.get(this).getEntry(hit.seriesName);
+            if (entry == null) {
+                continue;
+            }
+            String episode = hit.season > 0
+                    ? getString(R.string.label_season_episode, hit.season, hit.episodeLabel)
+                    : getString(R.string.label_episode, hit.episodeLabel);
+            shownHits.add(hit);
+            labels.add(getString(R.string.label_dialogue_hit, entry.getTitle(), episode,
+                    DateUtils.formatElapsedTime(hit.start / 1000), hit.text));
+        }
+        if (shownHits.isEmpty()) {
+            Toast.makeText(this, R.string.message_no_dialogue_results, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        new AlertDialog.Builder(this)
+                .setItems(labels.toArray(new CharSequence[labels.size()]),
+                        new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        DialogueIndex.Hit hit = shownHits.get(which);
+                        Intent in = new Intent(MainActivity.this, SubtitleListingActivity.class);
+                        in.putExtra(SubtitleListingActivity.ENTRY_NAME_EXTRA, hit.seriesName);
+                        in.putExtra(SubtitleListingActivity.EPISODE_SOURCE_EXTRA, hit.source);
+                        startActivity(in);
+                    }
+                })
+                .show();
+    }
+
     private void selectSubtitlesFolder() {
         selectFolder(REQUEST_CODE_SUBTITLES_FOLDER);
     }
 
     private void loadFinished() {
         mSwipeRefreshLayout.setEnabled(true);
-        mAdapter.notifyDataSetChanged();
         mSwipeRefreshLayout.setRefreshing(false);
         mEmptyView.setVisibility(mAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
     }
@@ -274,64 +601,54 @@ public class MainActivity extends UsbDetectionActivity implements RecyclerViewAd
         mSubtitleSelectMessageDialog.show();
     }
 
+    private void showLibrary(List<VideoEntry> entries) {
+        if (!entries.isEmpty()) {
+            SubwichApplication.get(this).getLastUsedTimes().assign(entries);
+        }
+        mAdapter.showSorted(entries);
+    }
+
+    private void showSnapshot() {
+        List<String> roots = SubwichApplication.get(this).getSubtitleRoots();
+        if (!roots.isEmpty()) {
+            showLibrary(mLibrary.readSnapshot(roots));
+        }
+    }
+
+    private List<LibrarySource> createSources() {
+        List<LibrarySource> sources = new ArrayList<>();
+        for (String root : SubwichApplication.get(this).getSubtitleRoots()) {
+            sources.add(LibrarySource.create(this, root));
+        }
+        return sources;
+    }
+
+    private void showRootsTitle(List<LibrarySource> sources) {
+        StringBuilder title = new StringBuilder();
+        for (LibrarySource source : sources) {
+            if (title.length() > 0) {
+                title.append(", ");
+            }
+            title.append(source.getRootName()).append('/');
+        }
+        setTitle(title);
+    }
+
     private void loadFiles() {
-        final String subsPath = mPrefs.getString(
-                getString(R.string.settings_subtitles_folder), null);
-        mAdapter.clear();
-        if (subsPath == null) {
+        List<LibrarySource> sources = createSources();
+        if (sources.isEmpty()) {
+            mAdapter.clear();
+            mAdapter.notifyDataSetChanged();
             setTitle(R.string.label_no_subtitles_folder_selected);
             showSelectSubtitlesFolderDialog();
             loadFinished();
             return;
         }
-        final File root = new File(subsPath);
-        setTitle(root.getName() + "/");
+        showRootsTitle(sources);
 
-        // Run routine to scan for files under root folder
-        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
-            @Override
-            public void run() {
-                // Check for valid root folder
-                if (!root.exists() || !root.isDirectory() || !root.canRead()) {
-                    mMainHandler.post(new Runnable() {
-                        @Override
-                        public void run() {
-                            Toast.makeText(MainActivity.this,
-                                    R.string.message_subtitles_folder_not_valid,
-                                    Toast.LENGTH_SHORT).show();
-                            selectSubtitlesFolder();
-                        }
-                    });
-                } else {
-                    // Scan for the videos and its information
-                    File[] folders = root.listFiles(mFolderFilter);
-                    if (folders != null) {
-                        List<VideoEntry> entries = new ArrayList<>();
-                        for (File folder : folders) {
-                            VideoEntry entry = new VideoEntry(folder);
-                            entry.setLastUsed(getTimestamp(entry));
-                            entry.reloadData();
-                            if (entry.getNumSubs() > 0) {
-                                entries.add(entry);
-                            } else {
-                                Log.w(TAG, "Ignore folder '" + folder.getAbsolutePath()
-                                        + "' because no subtitles were found");
-                            }
-                        }
-                        if (!entries.isEmpty()) {
-                            removeUnusedTimestamps();
-                            mAdapter.addAll(entries);
-                            mAdapter.sort();
-                        }
-                    }
-                }
-                mMainHandler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        loadFinished();
-                    }
-                });
-            }
-        });
+        // When entries are already shown, revalidate them and only apply the differences,
+        // otherwise show each batch of entries as soon as it is found
+        mStreamEntries = mAdapter.getItemCount() == 0;
+        mLibrary.load(sources);
     }
 }
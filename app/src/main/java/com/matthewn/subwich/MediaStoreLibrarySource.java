@@ -0,0 +1,140 @@
+package com.matthewn.subwich;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the library from a subtitles root folder by asking the media store for every subtitle,
+ * archive and cover under the root in one query, instead of listing each series folder. The
+ * media store is only trusted for a folder when the folder has not changed since the newest file
+ * the media store knows of in it, otherwise the folder is listed from the file system.
+ */
+public class MediaStoreLibrarySource extends FileLibrarySource {
+    private static final String TAG = "MediaStoreLibrarySource";
+    private static final String[] Projection = {
+            MediaStore.Files.FileColumns.DATA,
+            MediaStore.Files.FileColumns.DATE_MODIFIED};
+
+    private final ContentResolver mResolver;
+    private volatile Map<String, IndexedFolder> mIndexedFolders = Collections.emptyMap();
+
+    private static class IndexedFolder {
+        final List<String> names = new ArrayList<>();
+        long newestModified;
+    }
+
+    public MediaStoreLibrarySource(ContentResolver resolver, String rootPath, int maxDepth) {
+        super(rootPath, maxDepth);
+        mResolver = resolver;
+    }
+
+    @Override
+    public List<Folder> listFolders() {
+        List<Folder> folders = super.listFolders();
+        if (folders != null) {
+            mIndexedFolders = queryIndexedFolders();
+        }
+        return folders;
+    }
+
+    /**
+     * A folder the media store knows subtitles or archives in is not listed
+     */
+    @Override
+    public boolean mayHaveSubtitles(Folder folder) {
+        IndexedFolder indexed = mIndexedFolders.get(folder.path);
+        if (indexed != null) {
+            for (String name : indexed.names) {
+                String lowerName = name.toLowerCase();
+                if (lowerName.endsWith(".srt") || lowerName.endsWith(".zip")) {
+                    return true;
+                }
+            }
+        }
+        return super.mayHaveSubtitles(folder);
+    }
+
+    @Override
+    public void reload(VideoEntry entry, long modified) {
+        IndexedFolder indexed = mIndexedFolders.get(entry.getPath());
+
+        // Media store dates are in seconds, a folder changed after its newest indexed file may
+        // have files the media store does not know about yet. A folder whose last change was
+        // creating its manifest is read from the manifest without being listed. Archives have to
+        // be opened to find their episodes.
+        if (indexed == null || modified <= 0 || modified / 1000 > indexed.newestModified
+                || VideoEntry.hasArchives(indexed.names)) {
+            super.reload(entry, modified);
+            return;
+        }
+        String coverName = VideoEntry.findCoverName(indexed.names);
+        entry.setData(coverName != null ? entry.getPath() + "/" + coverName : null,
+                VideoEntry.parseEpisodes(indexed.names), modified);
+    }
+
+    /**
+     * Finds all the subtitles, archives and covers under the root in one query and groups them
+     * by folder
+     */
+    private Map<String, IndexedFolder> queryIndexedFolders() {
+        String rootPath = getRootPath();
+        StringBuilder selection = new StringBuilder(MediaStore.Files.FileColumns.DATA)
+                .append(" LIKE ? AND (")
+                .append(MediaStore.Files.FileColumns.DATA).append(" LIKE ?");
+        List<String> args = new ArrayList<>();
+        args.add(rootPath + "/%");
+        args.add("%.srt");
+        selection.append(" OR ").append(MediaStore.Files.FileColumns.DATA).append(" LIKE ?");
+        args.add("%.zip");
+        for (String coverName : VideoEntry.CoverNames) {
+            selection.append(" OR ").append(MediaStore.Files.FileColumns.DATA).append(" LIKE ?");
+            args.add("%/" + coverName);
+        }
+        selection.append(")");
+
+        Map<String, IndexedFolder> folders = new HashMap<>();
+        Cursor cursor = null;
+        try {
+            cursor = mResolver.query(MediaStore.Files.getContentUri("external"), Projection,
+                    selection.toString(), args.toArray(new String[args.size()]), null);
+            if (cursor == null) {
+                return folders;
+            }
+            while (cursor.moveToNext()) {
+                String path = cursor.getString(0);
+                int nameStart = path != null ? path.lastIndexOf('/') : -1;
+
+                // Only keep files inside a folder of the root, folders that are not scanned are
+                // never looked up
+                if (nameStart <= rootPath.length() || !path.startsWith(rootPath + "/")) {
+                    continue;
+                }
+                String folderPath = path.substring(0, nameStart);
+                IndexedFolder folder = folders.get(folderPath);
+                if (folder == null) {
+                    folder = new IndexedFolder();
+                    folders.put(folderPath, folder);
+                }
+                folder.names.add(path.substring(nameStart + 1));
+                folder.newestModified = Math.max(folder.newestModified, cursor.getLong(1));
+            }
+            Log.v(TAG, "Media store knows of " + cursor.getCount() + " files in "
+                    + folders.size() + " folders");
+        } catch (SecurityException | IllegalArgumentException e) {
+            Log.w(TAG, "Unable to query the media store, listing all folders: " + e.getMessage());
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return folders;
+    }
+}
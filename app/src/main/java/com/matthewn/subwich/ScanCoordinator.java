@@ -0,0 +1,114 @@
+package com.matthewn.subwich;
+
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import android.util.Log;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Schedules library scans so that at most one is running at a time. Requests that come in quick
+ * succession are merged into one scan, and a new request cancels the running scan between
+ * folders. Each scan gets a generation number and only the latest generation is current, so
+ * results of a replaced scan can be dropped. All methods must be called on the main thread.
+ */
+public class ScanCoordinator {
+    private static final String TAG = "ScanCoordinator";
+    private static final long DebounceDelay = 300;
+
+    public interface ScanTask {
+        /**
+         * Runs the scan on a background thread
+         * @param signal canceled when this scan is replaced, check it between folders
+         * @param generation generation of this scan
+         */
+        public void scan(CancellationSignal signal, int generation);
+    }
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Executor mExecutor;
+    private final ScanTask mTask;
+    private CancellationSignal mRunningSignal;
+    private boolean mStartPending;
+    private int mGeneration;
+
+    private final Runnable mStartRunnable = new Runnable() {
+        @Override
+        public void run() {
+            start();
+        }
+    };
+
+    public ScanCoordinator(Executor executor, ScanTask task) {
+        mExecutor = executor;
+        mTask = task;
+        mGeneration = 0;
+    }
+
+    /**
+     * Requests a new scan, any running scan is canceled
+     * @param immediate start without waiting for more requests to come in
+     * @return generation of the scan that will run
+     */
+    public int requestScan(boolean immediate) {
+        mGeneration++;
+        if (mRunningSignal != null) {
+            mRunningSignal.cancel();
+        }
+        mStartPending = true;
+        mMainHandler.removeCallbacks(mStartRunnable);
+        if (immediate) {
+            start();
+        } else {
+            mMainHandler.postDelayed(mStartRunnable, DebounceDelay);
+        }
+        return mGeneration;
+    }
+
+    /**
+     * Cancels the running scan and any scan waiting to start
+     */
+    public void cancel() {
+        mGeneration++;
+        mStartPending = false;
+        mMainHandler.removeCallbacks(mStartRunnable);
+        if (mRunningSignal != null) {
+            mRunningSignal.cancel();
+        }
+    }
+
+    public boolean isCurrent(int generation) {
+        return generation == mGeneration;
+    }
+
+    private void start() {
+        // Wait for the canceled scan to stop, it will start the pending scan when it does
+        if (!mStartPending || mRunningSignal != null) {
+            return;
+        }
+        mStartPending = false;
+        final int generation = mGeneration;
+        final CancellationSignal signal = new CancellationSignal();
+        mRunningSignal = signal;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mTask.scan(signal, generation);
+                } catch (OperationCanceledException e) {
+                    Log.v(TAG, "Scan " + generation + " was canceled");
+                } finally {
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            mRunningSignal = null;
+                            start();
+                        }
+                    });
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,121 @@
+package com.matthewn.subwich;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Small file kept inside each series folder with its cover and episodes, so a folder that has
+ * not changed since the manifest was written does not need to be listed. It lives with the
+ * subtitles so it is still valid on another phone or after the app is reinstalled.
+ */
+public class SeriesManifest {
+    private static final String TAG = "SeriesManifest";
+    private static final int VERSION = 6;
+    static final String FileName = ".subwich";
+
+    private final String mCoverName;
+    private final Episode[] mEpisodes;
+
+    private SeriesManifest(String coverName, Episode[] episodes) {
+        mCoverName = coverName;
+        mEpisodes = episodes;
+    }
+
+    public String getCoverName() {
+        return mCoverName;
+    }
+
+    public Episode[] getEpisodes() {
+        return mEpisodes;
+    }
+
+    /**
+     * @param folder the series folder
+     * @param modified current modified time of the folder
+     * @return the manifest or null if there is none or the folder changed after it was written
+     */
+    public static SeriesManifest read(File folder, long modified) {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(new File(folder, FileName))));
+            if (in.readInt() != VERSION || in.readLong() != modified) {
+                return null;
+            }
+            String coverName = in.readBoolean() ? in.readUTF() : null;
+            return new SeriesManifest(coverName, VideoEntry.readEpisodes(in));
+        } catch (FileNotFoundException ignored) {
+        } catch (IOException e) {
+            // Empty or cut off, the folder is listed instead
+            Log.v(TAG, "Unable to read manifest of " + folder.getName());
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes the manifest of a folder that has episodes, failures are ignored since the folder
+     * can always be listed again. Creating the manifest changes the modified time of the folder
+     * while overwriting it does not, so a new manifest is kept with the time of the folder after
+     * it was created, as long as nothing else changed the folder since it was listed.
+     * @param folder the series folder
+     * @param modified modified time of the folder taken before it was listed
+     * @param coverName name of the cover or null
+     * @param episodes episodes found
+     * @return modified time of the folder the manifest is valid for, the given time if the
+     *         manifest could not be written
+     */
+    public static long write(File folder, long modified, String coverName, Episode[] episodes) {
+        File file = new File(folder, FileName);
+        if (!file.exists()) {
+            if (folder.lastModified() != modified) {
+                // Changed while it was listed, it is listed again next time
+                return modified;
+            }
+            try {
+                if (!file.createNewFile()) {
+                    return modified;
+                }
+            } catch (IOException | SecurityException e) {
+                // Folder is read only, it is listed every time it changes
+                return modified;
+            }
+            modified = folder.lastModified();
+        }
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            out.writeInt(VERSION);
+            out.writeLong(modified);
+            out.writeBoolean(coverName != null);
+            if (coverName != null) {
+                out.writeUTF(coverName);
+            }
+            VideoEntry.writeEpisodes(out, episodes);
+        } catch (IOException | SecurityException ignored) {
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        return modified;
+    }
+}
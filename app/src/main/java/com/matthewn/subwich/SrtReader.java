@@ -0,0 +1,122 @@
+package com.matthewn.subwich;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+
+/**
+ * Reads the cues of a SubRip subtitle one at a time from a stream, so a subtitle is never held
+ * in memory as a whole. Formatting tags such as &lt;i&gt; and {\an8} are left out of the text.
+ */
+class SrtReader implements Closeable {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String TimeSeparator = "-->";
+
+    private final BufferedReader mReader;
+    private long mStart;
+    private String mText;
+
+    SrtReader(InputStream in) {
+        mReader = new BufferedReader(new InputStreamReader(in, UTF8));
+    }
+
+    /**
+     * Reads the next cue, cues without text or with a timing line that cannot be read are
+     * skipped
+     * @return whether a cue was read
+     */
+    boolean next() throws IOException {
+        String line;
+        while ((line = mReader.readLine()) != null) {
+            int separator = line.indexOf(TimeSeparator);
+            long start = separator > 0 ? parseTime(line, separator) : -1;
+            if (start < 0) {
+                continue;
+            }
+            StringBuilder text = new StringBuilder();
+            while ((line = mReader.readLine()) != null && !line.trim().isEmpty()) {
+                appendText(text, line);
+            }
+            if (text.length() > 0) {
+                mStart = start;
+                mText = text.toString();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return start of the current cue in milliseconds
+     */
+    long getStart() {
+        return mStart;
+    }
+
+    /**
+     * @return text of the current cue with its lines joined by spaces
+     */
+    String getText() {
+        return mText;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mReader.close();
+    }
+
+    /**
+     * Parses a time such as 01:02:03,456 at the start of the line
+     * @return the time in milliseconds or -1 if it is not a time
+     */
+    private static long parseTime(String line, int end) {
+        long[] fields = new long[4];
+        int field = 0;
+        boolean hasDigits = false;
+        for (int i = 0; i < end; i++) {
+            char c = line.charAt(i);
+            if (c >= '0' && c <= '9') {
+                fields[field] = fields[field] * 10 + (c - '0');
+                hasDigits = true;
+            } else if ((c == ':' || c == ',' || c == '.') && hasDigits && field < 3) {
+                field++;
+                hasDigits = false;
+            } else if (c != ' ' && c != '\uFEFF') {
+                return -1;
+            }
+        }
+        if (field != 3 || !hasDigits) {
+            return -1;
+        }
+        return ((fields[0] * 60 + fields[1]) * 60 + fields[2]) * 1000 + fields[3];
+    }
+
+    private static void appendText(StringBuilder text, String line) {
+        if (text.length() > 0) {
+            text.append(' ');
+        }
+        int length = text.length();
+        char closing = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (closing != 0) {
+                if (c == closing) {
+                    closing = 0;
+                }
+            } else if (c == '<') {
+                closing = '>';
+            } else if (c == '{') {
+                closing = '}';
+            } else {
+                text.append(c);
+            }
+        }
+        if (text.length() == length && length > 0) {
+            // Line only had tags
+            text.setLength(length - 1);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.matthewn.subwich;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Moves downloaded subtitles such as Show.Name.S01E07.720p.srt from an inbox folder into the
+ * folder of their series, named the way the library parses them: 7.srt in a season folder such
+ * as Show Name - Season 1, or S01E07.srt in a series folder that holds every season. Series are
+ * looked up by their normalized name in an index built once, so each file is matched without
+ * going through all the titles.
+ */
+public class SubtitleImporter {
+    private static final String TAG = "SubtitleImporter";
+
+    public static class Result {
+        public int imported;
+        public int unmatched;
+        public int conflicts;
+    }
+
+    private final Map<String, VideoEntry> mSeries;
+    private final Set<String> mListed = new HashSet<>();
+
+    /**
+     * @param entries series of the library, document trees cannot be imported into
+     */
+    public SubtitleImporter(Collection<VideoEntry> entries) {
+        mSeries = new HashMap<>(entries.size() * 2);
+        for (VideoEntry entry : entries) {
+            if (!entry.isDocument()) {
+                mSeries.put(entry.getName(), entry);
+            }
+        }
+    }
+
+    /**
+     * Moves all the subtitles of the inbox that match a series, a subtitle is never moved over
+     * an episode that already exists. Must not be called from the main thread.
+     * @param inbox folder with the downloaded subtitles
+     * @return how many subtitles were imported and how many were left in the inbox
+     */
+    public Result importFolder(File inbox) {
+        Result result = new Result();
+        String[] fileNames = inbox.list();
+        if (fileNames == null) {
+            return result;
+        }
+        EpisodeParser parser = new EpisodeParser();
+        for (String fileName : fileNames) {
+            if (!fileName.toLowerCase().endsWith(".srt")) {
+                continue;
+            }
+            int end = fileName.length() - 4;
+            Episode episode = parser.parse(fileName, end, fileName);
+            String title = episode != null ? getTitle(fileName, parser.getStart()) : null;
+            if (title == null) {
+                result.unmatched++;
+                continue;
+            }
+
+            // Nested season folders are titled "Series - Season 1" and only hold that season
+            int season = episode.getSeason();
+            VideoEntry entry = season > 0
+                    ? mSeries.get(VideoEntry.normalizeName(title + " season " + season)) : null;
+            if (entry != null) {
+                season = 0;
+            } else {
+                entry = mSeries.get(VideoEntry.normalizeName(title));
+            }
+            if (entry == null) {
+                result.unmatched++;
+                continue;
+            }
+            entry = resolve(entry);
+
+            // The episode as the library will list it from the target folder
+            Episode imported = new Episode(season, episode.getNumber(), episode.getSub(),
+                    episode.getEndNumber(), getTargetName(episode, season));
+            File target = new File(entry.getPath(), imported.getSource());
+            if (entry.hasEpisode(imported) || target.exists()) {
+                result.conflicts++;
+            } else if (move(new File(inbox, fileName), target)) {
+                result.imported++;
+            } else {
+                result.unmatched++;
+            }
+        }
+        Log.v(TAG, "Imported " + result.imported + " subtitles, " + result.unmatched
+                + " unmatched, " + result.conflicts + " already exist");
+        return result;
+    }
+
+    /**
+     * Series found while loading on demand have not been listed yet, so their folder is listed
+     * into a copy before the episodes are checked for conflicts. The shown entry is left alone
+     * since it is only read on the main thread.
+     * @return the entry or its listed copy
+     */
+    private VideoEntry resolve(VideoEntry entry) {
+        if (entry.isResolved() || !mListed.add(entry.getPath())) {
+            return entry;
+        }
+        VideoEntry listed = entry.copyUnresolved();
+        listed.reloadData();
+        mSeries.put(listed.getName(), listed);
+        return listed;
+    }
+
+    /**
+     * @param start index where the episode starts in the file name
+     * @return the title before the episode without the separators around it, or null if the
+     *         name has no title
+     */
+    private static String getTitle(String fileName, int start) {
+        int end = start;
+        while (end > 0 && !Character.isLetterOrDigit(fileName.charAt(end - 1))) {
+            end--;
+        }
+        return end > 0 ? fileName.substring(0, end) : null;
+    }
+
+    /**
+     * @param season season the folder holds more than one of, or 0
+     * @return file name of the subtitle such as 7.srt, or S01E07.srt in a folder with seasons
+     */
+    private static String getTargetName(Episode episode, int season) {
+        if (season == 0) {
+            return episode.getLabel() + ".srt";
+        }
+        StringBuilder name = new StringBuilder(String.format(Locale.US, "S%02dE%02d", season,
+                episode.getNumber()));
+        if (episode.getSub() > 0) {
+            name.append('.').append(episode.getSubLabel());
+        }
+        if (episode.getEndNumber() > episode.getNumber()) {
+            name.append(String.format(Locale.US, "-E%02d", episode.getEndNumber()));
+        }
+        return name.append(".srt").toString();
+    }
+
+    /**
+     * Renames the file, or copies and deletes it when the inbox is on another volume
+     */
+    private static boolean move(File source, File target) {
+        if (source.renameTo(target)) {
+            return true;
+        }
+        InputStream in = null;
+        OutputStream out = null;
+        try {
+            in = new FileInputStream(source);
+            out = new FileOutputStream(target);
+            byte[] buffer = new byte[8192];
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                out.write(buffer, 0, len);
+            }
+            out.close();
+            out = null;
+            if (!source.delete()) {
+                Log.w(TAG, "Unable to remove imported subtitle " + source.getName());
+            }
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to import " + source.getName() + ": " + e.getMessage());
+            target.delete();
+            return false;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
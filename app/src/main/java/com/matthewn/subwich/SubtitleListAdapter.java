@@ -1,6 +1,5 @@
 package com.matthewn.subwich;
 
-import android.content.res.Resources;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -8,17 +7,22 @@ import android.widget.TextView;
 
 import com.matthewn.subwich.ui.ClickableAdapter;
 
-import java.io.File;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+
+public class SubtitleListAdapter
+        extends ClickableAdapter<SubtitleListAdapter.Holder, EpisodeRow> {
+    private final Map<String, Long> mIds = new HashMap<>();
 
-public class SubtitleListAdapter extends ClickableAdapter<SubtitleListAdapter.Holder, File> {
     public SubtitleListAdapter() {
-        this(new ArrayList<File>());
+        this(new ArrayList<EpisodeRow>());
     }
 
-    public SubtitleListAdapter(List<File> entries) {
+    public SubtitleListAdapter(List<EpisodeRow> entries) {
         super(entries);
+        setHasStableIds(true);
         notifyDataSetChanged();
     }
 
@@ -31,6 +35,33 @@ public class SubtitleListAdapter extends ClickableAdapter<SubtitleListAdapter.Ho
         }
     }
 
+    /**
+     * Episodes keep their id for as long as the adapter lives, so the same episode keeps its row
+     * after a reload
+     */
+    @Override
+    public long getItemId(int position) {
+        Episode episode = mEntries.get(position).episode;
+        String key = episode.getSeason() + ":" + episode.getNumber() + ":" + episode.getSub()
+                + ":" + episode.getEndNumber();
+        Long id = mIds.get(key);
+        if (id == null) {
+            id = (long) mIds.size();
+            mIds.put(key, id);
+        }
+        return id;
+    }
+
+    @Override
+    protected boolean isSameItem(EpisodeRow oldEntry, EpisodeRow newEntry) {
+        return oldEntry.episode.compareTo(newEntry.episode) == 0;
+    }
+
+    @Override
+    protected boolean isSameContent(EpisodeRow oldEntry, EpisodeRow newEntry) {
+        return oldEntry.label.equals(newEntry.label);
+    }
+
     @Override
     public Holder onCreateViewHolder(ViewGroup parent, int viewType) {
         View v = LayoutInflater.from(parent.getContext())
@@ -41,14 +72,6 @@ public class SubtitleListAdapter extends ClickableAdapter<SubtitleListAdapter.Ho
     @Override
     public void onBindViewHolder(Holder holder, int position) {
         super.onBindViewHolder(holder, position);
-        Resources res = holder.view.getResources();
-        if (mEntries.size() == 1) {
-            holder.view.setText(res.getText(R.string.label_single_episode));
-        } else {
-            String name = mEntries.get(position).getName();
-            String title = res.getString(
-                    R.string.label_episode, name.substring(0, name.indexOf(".")));
-            holder.view.setText(title);
-        }
+        holder.view.setText(mEntries.get(position).label);
     }
-}
\ No newline at end of file
+}
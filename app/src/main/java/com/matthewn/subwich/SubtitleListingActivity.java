@@ -1,10 +1,12 @@
 package com.matthewn.subwich;
 
+import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v4.provider.DocumentFile;
 import android.support.v4.view.animation.FastOutSlowInInterpolator;
 import android.support.v4.widget.SwipeRefreshLayout;
@@ -19,12 +21,11 @@ import com.matthewn.subwich.ui.EnhancedRecyclerView;
 import com.matthewn.subwich.ui.RecyclerViewAdapterListener;
 import com.matthewn.subwich.ui.SpacesItemDecoration;
 
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -32,7 +33,8 @@ public class SubtitleListingActivity extends UsbDetectionActivity
         implements RecyclerViewAdapterListener, SwipeRefreshLayout.OnRefreshListener {
 
     private static final String TAG = "SubtitleListingActivity";
-    static final String FILE_PATH_EXTRA = "SubtitleListingActivity.file.path.extra";
+    static final String ENTRY_NAME_EXTRA = "SubtitleListingActivity.entry.name.extra";
+    static final String EPISODE_SOURCE_EXTRA = "SubtitleListingActivity.episode.source.extra";
     static final String RETURN_HAS_WRITTEN_EXTRA = "SubtitleListingActivity.return.has.written.extra";
     private static final String SUBTITLE_FILE = "sub.srt";
     private static final String SUBTITLE_FOLDER = "sub";
@@ -43,7 +45,7 @@ public class SubtitleListingActivity extends UsbDetectionActivity
     private SwipeRefreshLayout mSwipeRefreshLayout;
 
     private VideoEntry mEntry;
-    private final List<File> mSubtitles = new ArrayList<>();
+    private final List<EpisodeRow> mSubtitles = new ArrayList<>();
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -65,7 +67,8 @@ public class SubtitleListingActivity extends UsbDetectionActivity
         mAdapter.setAdapterListener(this);
         mRecyclerView.setAdapter(mAdapter);
 
-        mEntry = getIntent().getParcelableExtra(FILE_PATH_EXTRA);
+        String name = getIntent().getStringExtra(ENTRY_NAME_EXTRA);
+        mEntry = name != null ? SubwichApplication.get(this).getEntry(name) : null;
         if (mEntry == null) {
             Log.w(TAG, "Came to list subtitles but passed no data");
             finish();
@@ -96,7 +99,16 @@ public class SubtitleListingActivity extends UsbDetectionActivity
 
             mEntry.loadImage((ImageView) findViewById(R.id.image));
             setTitle(mEntry.getTitle());
-            loadListing();
+
+            // Show the episodes that were already scanned and only check if the folder changed
+            showListing();
+            String episodeSource = getIntent().getStringExtra(EPISODE_SOURCE_EXTRA);
+            if (episodeSource != null) {
+                // Opened from a search without a shared element to wait for
+                scrollToEpisode(episodeSource);
+                animateListing(true);
+            }
+            loadListing(false);
         }
     }
 
@@ -118,7 +130,7 @@ public class SubtitleListingActivity extends UsbDetectionActivity
 
     @Override
     public void onRefresh() {
-        loadListing();
+        loadListing(true);
     }
 
     @Override
@@ -126,97 +138,131 @@ public class SubtitleListingActivity extends UsbDetectionActivity
         updateUsbDevicesListing();
 
         final Uri selectedUri = getSelectedDevice();
-        final Context ctx = this;
         if (selectedUri == null) {
             Toast.makeText(this, R.string.message_no_device_connected_to_write, Toast.LENGTH_SHORT)
                     .show();
         } else {
-            AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            runInBackground(BackgroundExecutor.LANE_USB_WRITE, new UsbWriteTask(this, selectedUri,
+                    mEntry, mAdapter.getEntry(position).episode));
+        }
+    }
+
+    /**
+     * Called on the main thread once a subtitle was written to the device while this activity
+     * is still alive, so the library moves the series to the top when it is shown again
+     */
+    private void subtitleWritten() {
+        Intent in = new Intent();
+        in.putExtra(RETURN_HAS_WRITTEN_EXTRA, true);
+        setResult(RESULT_OK, in);
+    }
+
+    /**
+     * Writes the subtitle of an episode to /sub/sub.srt on the device. The write is not canceled
+     * when the activity is recreated, so it only holds on to the application and reaches the
+     * activity through a weak reference once it is done.
+     */
+    private static class UsbWriteTask implements Runnable {
+        private final Context mContext;
+        private final WeakReference<SubtitleListingActivity> mActivity;
+        private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+        private final Uri mDeviceUri;
+        private final VideoEntry mEntry;
+        private final Episode mEpisode;
+
+        UsbWriteTask(SubtitleListingActivity activity, Uri deviceUri, VideoEntry entry,
+                     Episode episode) {
+            mContext = activity.getApplicationContext();
+            mActivity = new WeakReference<>(activity);
+            mDeviceUri = deviceUri;
+            mEntry = entry;
+            mEpisode = episode;
+        }
+
+        @Override
+        public void run() {
+            final int messageRes = write();
+            mMainHandler.post(new Runnable() {
                 @Override
                 public void run() {
-                    int messageRes = 0;
-                    boolean isError = true;
-
-                    // Try to write file into /sub/sub.srt, create files if needed
-                    DocumentFile file = DocumentFile.fromTreeUri(ctx, selectedUri);
-                    if (!file.exists()) {
-                        messageRes = R.string.message_device_missing;
-                    } else {
-                        // Create subtitle folder if not exists
-                        DocumentFile subFolder = file.findFile(SUBTITLE_FOLDER);
-                        if (subFolder == null) {
-                            subFolder = file.createDirectory(SUBTITLE_FOLDER);
-                        }
-                        if (subFolder == null) {
-                            messageRes = R.string.message_unable_create_folder_error;
-                        } else {
-                            OutputStream out = null;
-                            InputStream in = null;
-                            try {
-                                // Create the subtitle file if not exists
-                                DocumentFile srtFile = subFolder.findFile(SUBTITLE_FILE);
-                                if (srtFile == null) {
-                                    srtFile = subFolder.createFile(null, SUBTITLE_FILE);
-                                }
-                                if (srtFile == null) {
-                                    messageRes = R.string.message_unable_create_output_error;
-                                } else {
-                                    // Copy data over to file
-                                    out = getContentResolver().openOutputStream(srtFile.getUri());
-                                    if (out != null) {
-                                        in = new FileInputStream(mAdapter.getEntry(position));
-                                        byte[] buffer = new byte[1024];
-                                        int len;
-                                        while ((len = in.read(buffer)) != -1) {
-                                            out.write(buffer, 0, len);
-                                        }
-                                        messageRes = R.string.message_subtitle_success_copy;
-                                        isError = false;
-                                    } else {
-                                        messageRes = R.string.message_output_stream_error;
-                                    }
-                                }
-                            } catch (FileNotFoundException e) {
-                                e.printStackTrace();
-                                messageRes = R.string.message_missing_files;
-                            } catch (IOException e) {
-                                e.printStackTrace();
-                                messageRes = R.string.message_copy_subtitle_error;
-                            } finally {
-                                if (out != null) {
-                                    try {
-                                        out.close();
-                                    } catch (IOException ignored) {
-                                    }
-                                }
-                                if (in != null) {
-                                    try {
-                                        in.close();
-                                    } catch (IOException ignored) {
-                                    }
-                                }
-                            }
-                        }
+                    Toast.makeText(mContext, messageRes, Toast.LENGTH_SHORT).show();
+                    if (messageRes != R.string.message_subtitle_success_copy) {
+                        Log.e(TAG, mContext.getString(messageRes));
+                        return;
+                    }
+                    saveVideoTimeStamp(mContext, mEntry);
+                    SubtitleListingActivity activity = mActivity.get();
+                    if (activity != null && !activity.isDestroyed()) {
+                        activity.subtitleWritten();
                     }
-                    final int finalMessageRes = messageRes;
-                    final boolean finalIsError = isError;
-                    mMainHandler.post(new Runnable() {
-                        @Override
-                        public void run() {
-                            Toast.makeText(ctx, finalMessageRes, Toast.LENGTH_SHORT).show();
-                            if (finalIsError) {
-                                Log.e(TAG, getString(finalMessageRes));
-                            } else {
-                                Intent in = new Intent();
-                                in.putExtra(RETURN_HAS_WRITTEN_EXTRA, true);
-                                setResult(RESULT_OK, in);
-                                updateVideoTimeStamp(mEntry);
-                            }
-                        }
-                    });
                 }
             });
         }
+
+        /**
+         * Try to write file into /sub/sub.srt, create files if needed
+         * @return message to show
+         */
+        private int write() {
+            ContentResolver resolver = mContext.getContentResolver();
+            DocumentFile file = DocumentFile.fromTreeUri(mContext, mDeviceUri);
+            if (!file.exists()) {
+                return R.string.message_device_missing;
+            }
+
+            // Create subtitle folder if not exists
+            DocumentFile subFolder = file.findFile(SUBTITLE_FOLDER);
+            if (subFolder == null) {
+                subFolder = file.createDirectory(SUBTITLE_FOLDER);
+            }
+            if (subFolder == null) {
+                return R.string.message_unable_create_folder_error;
+            }
+            OutputStream out = null;
+            InputStream in = null;
+            try {
+                // Create the subtitle file if not exists
+                DocumentFile srtFile = subFolder.findFile(SUBTITLE_FILE);
+                if (srtFile == null) {
+                    srtFile = subFolder.createFile(null, SUBTITLE_FILE);
+                }
+                if (srtFile == null) {
+                    return R.string.message_unable_create_output_error;
+                }
+
+                // Copy data over to file
+                out = resolver.openOutputStream(srtFile.getUri());
+                if (out == null) {
+                    return R.string.message_output_stream_error;
+                }
+                in = mEntry.openEpisode(resolver, mEpisode);
+                byte[] buffer = new byte[1024];
+                int len;
+                while ((len = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, len);
+                }
+                return R.string.message_subtitle_success_copy;
+            } catch (FileNotFoundException e) {
+                e.printStackTrace();
+                return R.string.message_missing_files;
+            } catch (IOException e) {
+                e.printStackTrace();
+                return R.string.message_copy_subtitle_error;
+            } finally {
+                if (out != null) {
+                    try {
+                        out.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }
     }
 
     private void animateListing(boolean show) {
@@ -227,30 +273,74 @@ public class SubtitleListingActivity extends UsbDetectionActivity
                 .start();
     }
 
+    private void showListing() {
+        mAdapter.clear();
+        mAdapter.addAll(EpisodeRow.createAll(getResources(), mEntry.getEpisodeSubList()));
+        mAdapter.notifyDataSetChanged();
+    }
+
+    /**
+     * Shows the episode that was picked from a search at the top of the list
+     * @param source file name of the episode
+     */
+    private void scrollToEpisode(String source) {
+        for (int i = 0; i < mAdapter.getItemCount(); i++) {
+            if (source.equals(mAdapter.getEntry(i).episode.getSource())) {
+                mLayoutManager.scrollToPositionWithOffset(i, 0);
+                return;
+            }
+        }
+    }
+
     private void listingLoaded() {
         mSwipeRefreshLayout.setRefreshing(false);
+        List<EpisodeRow> episodes;
         synchronized (mSubtitles) {
-            mAdapter.addAll(mSubtitles);
+            episodes = new ArrayList<>(mSubtitles);
         }
-        mAdapter.notifyDataSetChanged();
+
+        // Only the episodes that were added or removed are animated
+        mAdapter.submitEntries(episodes, getBackgroundExecutor(BackgroundExecutor.LANE_LOADING),
+                null);
     }
 
-    private void loadListing() {
-        mAdapter.clear();
-        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+    /**
+     * Reloads the episodes of the series in the background. The shown entry is shared with the
+     * library, so the folder is listed into a copy that is swapped in on the main thread.
+     * @param force reload even if the folder has not changed since it was scanned
+     */
+    private void loadListing(final boolean force) {
+        final VideoEntry entry = mEntry;
+        final Context ctx = getApplicationContext();
+        runInBackground(BackgroundExecutor.LANE_LOADING, new Runnable() {
             @Override
             public void run() {
-                mEntry.reloadData();
+                // Series found while loading on demand have the time of their folder but are
+                // not listed yet
+                if (!force && entry.isResolved() && LibrarySource.getFolderModified(ctx,
+                        entry.getPath()) == entry.getModified()) {
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            mSwipeRefreshLayout.setRefreshing(false);
+                        }
+                    });
+                    return;
+                }
+                final VideoEntry reloaded = entry.copyUnresolved();
+                LibrarySource.reloadFolder(ctx, reloaded);
+                reloaded.getRow();
+                List<EpisodeRow> rows = EpisodeRow.createAll(getResources(),
+                        reloaded.getEpisodeSubList());
                 synchronized (mSubtitles) {
                     mSubtitles.clear();
-                    String path = mEntry.getPath();
-                    for (int i : mEntry.getEpisodeSubList()) {
-                        mSubtitles.add(new File(path + "/" + i + ".srt"));
-                    }
+                    mSubtitles.addAll(rows);
                 }
                 mMainHandler.post(new Runnable() {
                     @Override
                     public void run() {
+                        mEntry = reloaded;
+                        SubwichApplication.get(ctx).getLibrary().replace(reloaded);
                         listingLoaded();
                     }
                 });
@@ -0,0 +1,134 @@
+package com.matthewn.subwich;
+
+import android.app.Application;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import com.squareup.picasso.Picasso;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class SubwichApplication extends Application {
+    static final String LIBRARY_SNAPSHOT_FILE = "library.snapshot";
+    private static final String LEGACY_LIBRARY_INDEX_FILE = "library.index";
+    private static final int BitmapPoolMemoryClassFraction = 16;
+
+    private final LibraryRepository mLibrary = new LibraryRepository();
+    private DialogueIndex mDialogueIndex;
+    private LastUsedTimes mLastUsedTimes;
+    private Picasso mPicasso;
+    private CoverMemoryCache mCoverCache;
+    private BitmapPool mBitmapPool;
+
+    public static SubwichApplication get(Context context) {
+        return (SubwichApplication) context.getApplicationContext();
+    }
+
+    public LibraryRepository getLibrary() {
+        return mLibrary;
+    }
+
+    /**
+     * @return last time a subtitle of each series was written, shared by every screen
+     */
+    public synchronized LastUsedTimes getLastUsedTimes() {
+        if (mLastUsedTimes == null) {
+            mLastUsedTimes = new LastUsedTimes(this);
+        }
+        return mLastUsedTimes;
+    }
+
+    public synchronized DialogueIndex getDialogueIndex() {
+        if (mDialogueIndex == null) {
+            mDialogueIndex = new DialogueIndex(this);
+        }
+        return mDialogueIndex;
+    }
+
+    /**
+     * @return Picasso that can also load cover thumbnails from the thumbnail cache
+     */
+    public synchronized Picasso getPicasso() {
+        if (mPicasso == null) {
+            mCoverCache = new CoverMemoryCache(this);
+            mBitmapPool = new BitmapPool(
+                    CoverMemoryCache.getMemoryLimit(this, BitmapPoolMemoryClassFraction));
+            mPicasso = new Picasso.Builder(this)
+                    .memoryCache(mCoverCache)
+                    .addRequestHandler(new CoverThumbnailRequestHandler(this, mBitmapPool))
+                    .build();
+        }
+        return mPicasso;
+    }
+
+    @Override
+    public synchronized void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (mPicasso != null) {
+            // Pooled bitmaps are only needed while decoding, so they go first
+            if (level >= TRIM_MEMORY_RUNNING_LOW) {
+                mBitmapPool.clear();
+            }
+            mCoverCache.trimMemory(level);
+        }
+    }
+
+    @Override
+    public synchronized void onLowMemory() {
+        super.onLowMemory();
+        if (mPicasso != null) {
+            mBitmapPool.clear();
+            mCoverCache.clear();
+        }
+    }
+
+    /**
+     * Gets the subtitles roots, the single root saved by older versions is moved to the list
+     * @return sorted paths or document uris of the roots
+     */
+    public List<String> getSubtitleRoots() {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+        String rootsKey = getString(R.string.settings_subtitles_folders);
+        String oldRootKey = getString(R.string.settings_subtitles_folder);
+        if (!prefs.contains(rootsKey) && prefs.contains(oldRootKey)) {
+            setSubtitleRoots(Collections.singletonList(prefs.getString(oldRootKey, null)));
+            prefs.edit().remove(oldRootKey).apply();
+
+            // Each root has its own index now, the index of the single root is not read again
+            new File(getFilesDir(), LEGACY_LIBRARY_INDEX_FILE).delete();
+        }
+        List<String> roots = new ArrayList<>(prefs.getStringSet(rootsKey,
+                Collections.<String>emptySet()));
+        Collections.sort(roots);
+        return roots;
+    }
+
+    public void setSubtitleRoots(List<String> roots) {
+        Set<String> rootSet = new HashSet<>(roots);
+        PreferenceManager.getDefaultSharedPreferences(this).edit()
+                .putStringSet(getString(R.string.settings_subtitles_folders), rootSet).apply();
+    }
+
+    /**
+     * Gets the series from the shared library. If the process was restarted and the library is
+     * empty, it is restored from the snapshot of the last scan first.
+     * @param name name of the series
+     * @return the entry or null if it cannot be found
+     */
+    public VideoEntry getEntry(String name) {
+        if (mLibrary.isEmpty()) {
+            List<String> roots = getSubtitleRoots();
+            if (!roots.isEmpty()) {
+                mLibrary.putAll(new LibrarySnapshot(new File(getFilesDir(),
+                        LIBRARY_SNAPSHOT_FILE)).read(LibrarySnapshot.keyOf(roots)));
+            }
+        }
+        return mLibrary.get(name);
+    }
+}
@@ -0,0 +1,182 @@
+package com.matthewn.subwich;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In memory index of the series titles for search as you type. Queries of one or two characters
+ * match the start of any word of a title through a prefix table, longer queries match anywhere
+ * in the title by intersecting the lists of titles that contain each three character piece of
+ * the query. Titles are compared by their normalized name so punctuation and case are ignored.
+ * The index is immutable and is built off the main thread whenever the library changes. It
+ * answers with the names of the series, so it stays valid when an entry is replaced by a copy
+ * that was listed again.
+ */
+public class TitleIndex {
+    private static final int GramSize = 3;
+    private static final char WordSeparator = '-';
+
+    private final String[] mNames;
+    private final String[] mTitles;
+    private final Map<String, int[]> mPrefixes;
+    private final Map<String, int[]> mGrams;
+
+    /**
+     * Growable list of entry ids, ids are added in increasing order
+     */
+    private static class Postings {
+        int[] ids = new int[4];
+        int size;
+
+        void add(int id) {
+            if (size > 0 && ids[size - 1] == id) {
+                return;
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+    }
+
+    public TitleIndex(List<VideoEntry> entries) {
+        mNames = new String[entries.size()];
+        mTitles = new String[mNames.length];
+        Map<String, Postings> prefixes = new HashMap<>();
+        Map<String, Postings> grams = new HashMap<>();
+        for (int id = 0; id < mNames.length; id++) {
+            VideoEntry entry = entries.get(id);
+            mNames[id] = entry.getName();
+
+            // Start with a separator so the grams at the start of the title are word prefixes
+            String title = WordSeparator + normalize(entry.getTitle());
+            mTitles[id] = title;
+            for (int i = 0; i < title.length(); i++) {
+                if (title.charAt(i) == WordSeparator && i + 1 < title.length()) {
+                    addPosting(prefixes, title.substring(i + 1, i + 2), id);
+                    if (i + 2 < title.length()) {
+                        addPosting(prefixes, title.substring(i + 1, i + 3), id);
+                    }
+                }
+                if (i + GramSize <= title.length()) {
+                    addPosting(grams, title.substring(i, i + GramSize), id);
+                }
+            }
+        }
+        mPrefixes = compact(prefixes);
+        mGrams = compact(grams);
+    }
+
+    /**
+     * @param query text typed by the user
+     * @return names of the series that match, or null if the query is empty so everything is
+     *         shown
+     */
+    public Set<String> search(String query) {
+        String normalized = normalize(query);
+        if (normalized.isEmpty()) {
+            return null;
+        }
+        if (normalized.length() < GramSize) {
+            return toNames(mPrefixes.get(normalized), null);
+        }
+
+        // Intersect the smallest lists first, every piece of the query must be in the title
+        int[][] lists = new int[normalized.length() - GramSize + 1][];
+        for (int i = 0; i < lists.length; i++) {
+            lists[i] = mGrams.get(normalized.substring(i, i + GramSize));
+            if (lists[i] == null) {
+                return Collections.emptySet();
+            }
+        }
+        Arrays.sort(lists, new Comparator<int[]>() {
+            @Override
+            public int compare(int[] a, int[] b) {
+                return a.length - b.length;
+            }
+        });
+        int[] ids = lists[0];
+        for (int i = 1; i < lists.length && ids.length > 0; i++) {
+            ids = intersect(ids, lists[i]);
+        }
+
+        // The pieces can be in another order in the title, check the whole query
+        return toNames(ids, normalized);
+    }
+
+    public int size() {
+        return mNames.length;
+    }
+
+    private Set<String> toNames(int[] ids, String verify) {
+        if (ids == null) {
+            return Collections.emptySet();
+        }
+        Set<String> names = new HashSet<>(ids.length * 2);
+        for (int id : ids) {
+            if (verify == null || mTitles[id].contains(verify)) {
+                names.add(mNames[id]);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * @return lower case title with runs of punctuation and spaces replaced by one separator
+     */
+    private static String normalize(String text) {
+        String name = VideoEntry.normalizeName(text);
+        int start = 0;
+        int end = name.length();
+        while (start < end && name.charAt(start) == WordSeparator) {
+            start++;
+        }
+        while (end > start && name.charAt(end - 1) == WordSeparator) {
+            end--;
+        }
+        return name.substring(start, end);
+    }
+
+    private static void addPosting(Map<String, Postings> index, String key, int id) {
+        Postings postings = index.get(key);
+        if (postings == null) {
+            postings = new Postings();
+            index.put(key, postings);
+        }
+        postings.add(id);
+    }
+
+    private static Map<String, int[]> compact(Map<String, Postings> index) {
+        Map<String, int[]> compacted = new HashMap<>(index.size() * 2);
+        for (Map.Entry<String, Postings> entry : index.entrySet()) {
+            Postings postings = entry.getValue();
+            compacted.put(entry.getKey(), Arrays.copyOf(postings.ids, postings.size));
+        }
+        return compacted;
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[size++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+}
@@ -158,6 +158,10 @@ public abstract class UsbDetectionActivity extends BaseActivity {
             // Check the permitted devices and get which are connected
             List<UriPermission> permissions = getContentResolver().getPersistedUriPermissions();
             for (UriPermission permission : permissions) {
+                // Read only permissions are for subtitle folders and not usb devices
+                if (!permission.isWritePermission()) {
+                    continue;
+                }
                 DocumentFile docDir = DocumentFile.fromTreeUri(this, permission.getUri());
                 if (docDir.exists()) {
                     mDevices.add(permission.getUri());
@@ -1,25 +1,41 @@
 package com.matthewn.subwich;
 
+import android.content.ContentResolver;
+import android.content.res.Resources;
+import android.net.Uri;
 import android.os.Parcel;
 import android.os.Parcelable;
+import android.provider.DocumentsContract;
 import android.util.Log;
 import android.widget.ImageView;
 
-import com.squareup.picasso.Picasso;
-
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileFilter;
-import java.util.ArrayList;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Comparator;
+import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-
-import static com.matthewn.subwich.BaseActivity.log;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 public class VideoEntry implements Parcelable {
     private static final String TAG = "VideoEntry";
+    private static final String ArchiveExtension = ".zip";
+    private static final Pattern NameSeparators = Pattern.compile(
+            "[\\s~`!@#$%^&*(){}\\[\\];:\"'<,.>?\\/\\\\|_+=-]+");
+    static final String[] CoverNames = {
+            "cover.png", "cover.jpg", "image.png", "image.jpg"};
     private static final Set<String> NoneCapitalizableWords = new HashSet<>(Arrays.asList(
             "no", "of", "a", "to"));
 
@@ -27,8 +43,10 @@ public class VideoEntry implements Parcelable {
     private final String mTitle;
     private final String mPath;
     private String mCoverPath;
-    private int[] mEpisodes;
+    private Episode[] mEpisodes;
     private long mLastUsed;
+    private long mModified;
+    private VideoRow mRow;
 
     public static final FileFilter SubtitleFileFilter = new FileFilter() {
         @Override
@@ -47,9 +65,8 @@ public class VideoEntry implements Parcelable {
                 } else if (o2.getLastUsed() == 0) {
                     return -1;
                 }
-                return (int) diff;
+                return diff > 0 ? 1 : -1;
             }
-            log("Sort name", o1.getTitle(), o2.getTitle());
             return o1.getTitle().compareTo(o2.getTitle());
         }
     };
@@ -71,31 +88,118 @@ public class VideoEntry implements Parcelable {
         mTitle = p.readString();
         mPath = p.readString();
         mCoverPath = p.readString();
-        mEpisodes = p.createIntArray();
+        int numEpisodes = p.readInt();
+        if (numEpisodes >= 0) {
+            mEpisodes = new Episode[numEpisodes];
+            for (int i = 0; i < numEpisodes; i++) {
+                mEpisodes[i] = new Episode(p);
+            }
+        } else {
+            mEpisodes = null;
+        }
         mLastUsed = p.readLong();
+        mModified = p.readLong();
+    }
+
+    VideoEntry(DataInputStream in) throws IOException {
+        mName = in.readUTF();
+        mTitle = in.readUTF();
+        mPath = in.readUTF();
+        mCoverPath = in.readBoolean() ? in.readUTF() : null;
+        mEpisodes = readEpisodes(in);
+        mModified = in.readLong();
+        mLastUsed = in.readLong();
     }
 
     public VideoEntry(File file) {
-        String title = file.getName();
-        mName = title.toLowerCase().replaceAll("[\\s~`!@#$%^&*(){}\\[\\];:\"'<,.>?\\/\\\\|_+=-]+", "-");
+        this(file.getAbsolutePath(), file.getName());
+    }
+
+    /**
+     * @param path absolute path of the folder or the document uri of the folder
+     * @param title name of the folder
+     */
+    VideoEntry(String path, String title) {
+        this(path, title, 0);
+    }
+
+    /**
+     * @param modified modified time of the folder when it was found, for a series that is only
+     *                 listed once its row is shown
+     */
+    VideoEntry(String path, String title, long modified) {
+        mName = normalizeName(title);
         mTitle = presentable(title);
-        mPath = file.getAbsolutePath();
+        mPath = path;
         mCoverPath = null;
         mEpisodes = null;
         mLastUsed = 0;
+        mModified = modified;
+    }
+
+    private VideoEntry(VideoEntry entry) {
+        mName = entry.mName;
+        mTitle = entry.mTitle;
+        mPath = entry.mPath;
+        mCoverPath = null;
+        mEpisodes = null;
+        mLastUsed = entry.mLastUsed;
+        mModified = 0;
+    }
+
+    /**
+     * Rows keep binding an entry while it is shown, so a series is listed again into this copy in
+     * the background and the copy replaces it on the main thread
+     * @return the same series with its folder not listed yet
+     */
+    VideoEntry copyUnresolved() {
+        return new VideoEntry(this);
+    }
+
+    /**
+     * @param title title of a series in any form, such as a folder or a file name
+     * @return the name that identifies the series, titles that only differ in punctuation and
+     *         case have the same name
+     */
+    static String normalizeName(String title) {
+        return NameSeparators.matcher(title.toLowerCase()).replaceAll("-");
     }
 
     public void loadImage(ImageView imageView) {
         if (mCoverPath != null) {
-            Picasso.with(imageView.getContext())
-                    .load(new File(mCoverPath))
+            SubwichApplication.get(imageView.getContext()).getPicasso()
+                    .load(getCoverUri())
+                    .into(imageView);
+        } else {
+            imageView.setImageDrawable(null);
+        }
+    }
+
+    /**
+     * Loads the cover as a thumbnail the width of the screen and the height of a library row,
+     * so the full size cover is only decoded the first time it is shown
+     */
+    public void loadThumbnail(ImageView imageView) {
+        if (mCoverPath != null) {
+            Resources res = imageView.getResources();
+            SubwichApplication.get(imageView.getContext()).getPicasso()
+                    .load(CoverThumbnailRequestHandler.thumbnailUri(getCoverUri(),
+                            res.getDisplayMetrics().widthPixels,
+                            res.getDimensionPixelSize(R.dimen.cover_thumbnail_height)))
                     .into(imageView);
         } else {
             imageView.setImageDrawable(null);
         }
     }
 
+    private Uri getCoverUri() {
+        return isDocument() ? Uri.parse(mCoverPath) : Uri.fromFile(new File(mCoverPath));
+    }
+
     public String getFormattedSubsInfo() {
+        if (mEpisodes == null) {
+            return "";
+        }
         return mEpisodes.length > 0
                 ? (mEpisodes.length == 1 ? "Has Subtitles" : mEpisodes.length + " Subtitles")
                 : "No Subtitles";
@@ -113,10 +217,34 @@ public class VideoEntry implements Parcelable {
         return mCoverPath;
     }
 
-    public int[] getEpisodeSubList() {
+    public Episode[] getEpisodeSubList() {
         return mEpisodes;
     }
 
+    /**
+     * @param episode an episode of the series
+     * @return whether the series has a subtitle for the same episode of the same season
+     */
+    public boolean hasEpisode(Episode episode) {
+        if (mEpisodes != null) {
+            for (Episode other : mEpisodes) {
+                if (other.compareTo(episode) == 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return whether the folder was listed for its cover and episodes, series found while
+     *         loading on demand are only listed once their row is shown. A listed folder without
+     *         subtitles has no episodes but is resolved.
+     */
+    public boolean isResolved() {
+        return mEpisodes != null;
+    }
+
     public int getNumSubs() {
         return mEpisodes != null ? mEpisodes.length : 0;
     }
@@ -129,6 +257,13 @@ public class VideoEntry implements Parcelable {
         return mLastUsed;
     }
 
+    /**
+     * @return the modified time of the folder when its data was last loaded
+     */
+    public long getModified() {
+        return mModified;
+    }
+
     public void updateUsed() {
         mLastUsed = System.currentTimeMillis();
     }
@@ -137,43 +272,301 @@ public class VideoEntry implements Parcelable {
         mLastUsed = timestamp;
     }
 
-    public void reloadData() {
-        File folder = new File(mPath);
+    /**
+     * @return whether the series is in a document tree instead of a folder on the file system
+     */
+    public boolean isDocument() {
+        return mPath.startsWith(ContentResolver.SCHEME_CONTENT + "://");
+    }
+
+    /**
+     * Subtitles in a document tree are opened with the document id the provider listed them
+     * with, since providers such as mtp and cloud storage do not derive ids from file names.
+     * @param episode an episode that is a loose file in the folder
+     * @return uri of the subtitle
+     */
+    public Uri getSubtitleUri(Episode episode) {
+        if (episode.getDocumentId() != null) {
+            return DocumentsContract.buildDocumentUriUsingTree(Uri.parse(mPath),
+                    episode.getDocumentId());
+        }
+        return Uri.fromFile(new File(mPath, episode.getSource()));
+    }
 
-        // Search for cover image
-        File imageFile = new File(mPath + "/cover.png");
-        if (imageFile.exists()
-                || (imageFile = new File(mPath + "/cover.jpg")).exists()
-                || (imageFile = new File(mPath + "/image.png")).exists()
-                || (imageFile = new File(mPath + "/image.jpg")).exists()) {
-            mCoverPath = imageFile.getAbsolutePath();
-        }
-
-        // Search number of subtitles
-        List<Integer> episodeNumbers = new ArrayList<>();
-        File[] subs = folder.listFiles(SubtitleFileFilter);
-        if (subs != null) {
-            for (File subtitleFile : subs) {
-                String fileName = subtitleFile.getName();
-                String name = fileName.substring(0, fileName.lastIndexOf("."));
+    /**
+     * Opens the subtitle of an episode, subtitles inside a zip archive are streamed straight
+     * from the archive without extracting it. Must not be called from the main thread.
+     * @param resolver resolver to open loose subtitles with
+     * @param episode the episode
+     * @return stream of the subtitle that must be closed
+     * @throws IOException if the subtitle cannot be opened
+     */
+    public InputStream openEpisode(ContentResolver resolver, Episode episode)
+            throws IOException {
+        String source = episode.getSource();
+        if (!episode.isArchived()) {
+            InputStream in = resolver.openInputStream(getSubtitleUri(episode));
+            if (in == null) {
+                throw new IOException("Unable to open subtitle " + source);
+            }
+            return in;
+        }
+        int separator = source.indexOf('/');
+        final ZipFile zip = new ZipFile(new File(mPath, source.substring(0, separator)));
+        ZipEntry entry = zip.getEntry(source.substring(separator + 1));
+        if (entry == null) {
+            zip.close();
+            throw new IOException("Subtitle " + source + " is missing from the archive");
+        }
+        return new FilterInputStream(zip.getInputStream(entry)) {
+            @Override
+            public void close() throws IOException {
                 try {
-                    episodeNumbers.add(Integer.parseInt(name, 10));
-                } catch (NumberFormatException e) {
-                    Log.w(TAG, "Subtitle name has wrong format: [" + fileName + "]");
+                    super.close();
+                } finally {
+                    zip.close();
                 }
             }
-            if (!episodeNumbers.isEmpty()) {
-                mEpisodes = new int[episodeNumbers.size()];
-                for (int i = 0; i < episodeNumbers.size(); i++) {
-                    mEpisodes[i] = episodeNumbers.get(i);
-                }
-                Arrays.sort(mEpisodes);
+        };
+    }
+
+    /**
+     * Reloads the cover and episodes of a series folder on the file system, document folders
+     * are reloaded through {@link LibrarySource}. The folder is only listed when it changed after
+     * its manifest was written, only folders with episodes get a manifest.
+     */
+    public void reloadData() {
+        File folder = new File(mPath);
+
+        // Take the modified time before listing so changes made during the listing are not missed
+        long modified = folder.lastModified();
+        SeriesManifest manifest = SeriesManifest.read(folder, modified);
+        if (manifest != null) {
+            String coverName = manifest.getCoverName();
+            setData(coverName != null ? mPath + "/" + coverName : null, manifest.getEpisodes(),
+                    modified);
+            return;
+        }
+
+        // One listing finds both the cover and the subtitles
+        String[] fileNames = folder.list();
+        if (fileNames != null) {
+            List<String> names = Arrays.asList(fileNames);
+            String coverName = findCoverName(names);
+            EpisodeParser parser = new EpisodeParser();
+            TreeSet<Episode> found = new TreeSet<>();
+            addEpisodes(found, names, null, null, parser);
+
+            // Loose subtitles take precedence over the same episode inside an archive
+            if (hasArchives(names)) {
+                addArchivedEpisodes(found, folder, names, parser);
+            }
+            Episode[] episodes = toArray(found);
+            if (episodes.length > 0) {
+                modified = SeriesManifest.write(folder, modified, coverName, episodes);
+            }
+            setData(coverName != null ? mPath + "/" + coverName : null, episodes, modified);
+        } else {
+            mModified = modified;
+        }
+    }
+
+    void setData(String coverPath, Episode[] episodes, long modified) {
+        mCoverPath = coverPath;
+        mEpisodes = episodes;
+        mModified = modified;
+        VideoRow row = new VideoRow(this);
+        synchronized (this) {
+            mRow = row;
+        }
+    }
+
+    /**
+     * @return what the row of the series shows, built on first use if the episodes were not
+     *         loaded through {@link #setData}
+     */
+    public synchronized VideoRow getRow() {
+        if (mRow == null) {
+            mRow = new VideoRow(this);
+        }
+        return mRow;
+    }
+
+    /**
+     * @param fileNames names of the files in a series folder
+     * @return name of the cover image or null if there is none
+     */
+    static String findCoverName(Collection<String> fileNames) {
+        for (String coverName : CoverNames) {
+            if (fileNames.contains(coverName)) {
+                return coverName;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param fileNames names of the files in a series folder
+     * @return sorted episodes of the subtitles, empty if there are none
+     */
+    static Episode[] parseEpisodes(Collection<String> fileNames) {
+        TreeSet<Episode> episodes = new TreeSet<>();
+        addEpisodes(episodes, fileNames, null, null, new EpisodeParser());
+        return toArray(episodes);
+    }
+
+    /**
+     * @param documentIds document ids of the files in a series folder keyed by their names
+     * @param modifiedTimes modified times of the files keyed by their names
+     * @return sorted episodes of the subtitles, which keep their document ids and modified
+     *         times, empty if there are none
+     */
+    static Episode[] parseEpisodes(Map<String, String> documentIds,
+                                   Map<String, Long> modifiedTimes) {
+        TreeSet<Episode> episodes = new TreeSet<>();
+        addEpisodes(episodes, documentIds.keySet(), documentIds, modifiedTimes,
+                new EpisodeParser());
+        return toArray(episodes);
+    }
+
+    /**
+     * Adds the episodes of the subtitles, an episode that is already there is kept
+     * @param documentIds document ids of the files keyed by their names, null for files
+     * @param modifiedTimes modified times of the documents keyed by their names, null for files
+     */
+    private static void addEpisodes(TreeSet<Episode> episodes, Collection<String> fileNames,
+                                    Map<String, String> documentIds,
+                                    Map<String, Long> modifiedTimes, EpisodeParser parser) {
+        for (String fileName : fileNames) {
+            if (!fileName.endsWith(".srt")) {
+                continue;
+            }
+            Long modified = modifiedTimes != null ? modifiedTimes.get(fileName) : null;
+            Episode episode = parser.parse(fileName, fileName.length() - 4, fileName,
+                    documentIds != null ? documentIds.get(fileName) : null,
+                    modified != null ? modified : 0);
+            if (episode != null) {
+                addEpisode(episodes, episode);
             } else {
-                mEpisodes = null;
+                Log.w(TAG, "Subtitle name has no episode: [" + fileName + "]");
+            }
+        }
+    }
+
+    /**
+     * Adds the episode unless the same episode is already there, which is logged since only one
+     * of the subtitles can be listed
+     */
+    private static void addEpisode(TreeSet<Episode> episodes, Episode episode) {
+        if (!episodes.add(episode)) {
+            Log.w(TAG, "Subtitle [" + episode.getSource() + "] is the same episode as ["
+                    + episodes.ceiling(episode).getSource() + "], only the first is listed");
+        }
+    }
+
+    private static Episode[] toArray(TreeSet<Episode> episodes) {
+        return episodes.toArray(new Episode[episodes.size()]);
+    }
+
+    /**
+     * @param fileNames names of the files in a series folder
+     * @return whether any of the files is a zip archive that may hold subtitles
+     */
+    static boolean hasArchives(Collection<String> fileNames) {
+        for (String fileName : fileNames) {
+            if (fileName.toLowerCase().endsWith(ArchiveExtension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds the subtitles inside the zip archives of a folder. Only the central directory at the
+     * end of each archive is read, nothing is extracted. Subtitles whose names have no season
+     * take it from their folder inside the archive or from the archive name, so one archive per
+     * season such as Season 2.zip or S02.zip can each hold 01.srt.
+     * @param episodes episodes found so far, an episode that is already there is kept
+     * @param folder the series folder
+     * @param fileNames names of the files in the folder
+     * @param parser parser for the names of the subtitles
+     */
+    private static void addArchivedEpisodes(TreeSet<Episode> episodes, File folder,
+                                            Collection<String> fileNames, EpisodeParser parser) {
+        for (String fileName : fileNames) {
+            if (!fileName.toLowerCase().endsWith(ArchiveExtension)) {
+                continue;
+            }
+            int archiveSeason = parser.parseSeason(fileName,
+                    fileName.length() - ArchiveExtension.length());
+            ZipFile zip = null;
+            try {
+                zip = new ZipFile(new File(folder, fileName));
+                Enumeration<? extends ZipEntry> entries = zip.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    String entryName = entry.getName();
+                    if (entry.isDirectory() || !entryName.endsWith(".srt")) {
+                        continue;
+                    }
+
+                    // Parse only the file name, the folders inside the archive only give a season
+                    int nameStart = entryName.lastIndexOf('/') + 1;
+                    String name = entryName.substring(nameStart);
+                    Episode episode = parser.parse(name, name.length() - 4,
+                            fileName + "/" + entryName);
+                    if (episode == null) {
+                        continue;
+                    }
+                    if (episode.getSeason() == 0) {
+                        int season = nameStart > 0
+                                ? parser.parseSeason(entryName, nameStart - 1) : 0;
+                        if (season == 0) {
+                            season = archiveSeason;
+                        }
+                        if (season > 0) {
+                            episode = new Episode(season, episode.getNumber(), episode.getSub(),
+                                    episode.getEndNumber(), episode.getSource());
+                        }
+                    }
+                    addEpisode(episodes, episode);
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to read archive [" + fileName + "]: " + e.getMessage());
+            } finally {
+                if (zip != null) {
+                    try {
+                        zip.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }
+    }
+
+    static void writeEpisodes(DataOutputStream out, Episode[] episodes) throws IOException {
+        if (episodes != null) {
+            out.writeInt(episodes.length);
+            for (Episode episode : episodes) {
+                episode.writeTo(out);
             }
+        } else {
+            out.writeInt(-1);
         }
     }
 
+    static Episode[] readEpisodes(DataInputStream in) throws IOException {
+        int numEpisodes = in.readInt();
+        if (numEpisodes < 0) {
+            return null;
+        }
+        Episode[] episodes = new Episode[numEpisodes];
+        for (int i = 0; i < numEpisodes; i++) {
+            episodes[i] = new Episode(in);
+        }
+        return episodes;
+    }
+
     @Override
     public int describeContents() {
         return 0;
@@ -185,8 +578,41 @@ public class VideoEntry implements Parcelable {
         dest.writeString(mTitle);
         dest.writeString(mPath);
         dest.writeString(mCoverPath);
-        dest.writeIntArray(mEpisodes);
+        if (mEpisodes != null) {
+            dest.writeInt(mEpisodes.length);
+            for (Episode episode : mEpisodes) {
+                episode.writeTo(dest);
+            }
+        } else {
+            dest.writeInt(-1);
+        }
         dest.writeLong(mLastUsed);
+        dest.writeLong(mModified);
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeUTF(mName);
+        out.writeUTF(mTitle);
+        out.writeUTF(mPath);
+        out.writeBoolean(mCoverPath != null);
+        if (mCoverPath != null) {
+            out.writeUTF(mCoverPath);
+        }
+        writeEpisodes(out, mEpisodes);
+        out.writeLong(mModified);
+        out.writeLong(mLastUsed);
+    }
+
+    /**
+     * @param other entry to compare with
+     * @return whether the other entry shows the same title, cover and episodes, episodes whose
+     *         subtitle was rewritten are not the same so the series is indexed again
+     */
+    public boolean hasSameData(VideoEntry other) {
+        return mTitle.equals(other.mTitle)
+                && (mCoverPath == null ? other.mCoverPath == null
+                        : mCoverPath.equals(other.mCoverPath))
+                && Arrays.equals(mEpisodes, other.mEpisodes);
     }
 
     private String presentable(String str) {
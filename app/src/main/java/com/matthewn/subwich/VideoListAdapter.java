@@ -1,6 +1,5 @@
 package com.matthewn.subwich;
 
-import android.text.Html;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -9,17 +8,66 @@ import android.widget.TextView;
 
 import com.matthewn.subwich.ui.ClickableAdapter;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
 
 public class VideoListAdapter extends ClickableAdapter<VideoListAdapter.Holder, VideoEntry> {
+    public interface EntryResolver {
+        /**
+         * Called when a series whose folder was not listed yet is bound or prefetched
+         * @param entry the series to list
+         */
+        public void resolve(VideoEntry entry);
+
+        /**
+         * Called before a page is shown so its series are listed first, the series that turn
+         * out to be empty are removed
+         * @param entries the series of the page
+         * @param resolved called on the main thread once they are listed and swapped in
+         */
+        public void resolvePage(List<VideoEntry> entries, Runnable resolved);
+    }
+
+    private final Map<String, Long> mIds = new HashMap<>();
+    private final List<VideoEntry> mUnpaged = new ArrayList<>();
+
+    // Every series in sort order: the unfiltered list while filtering, otherwise the shown
+    // entries followed by the unpaged ones. Submitted entries are read again from it when the
+    // list changed while they were compared
+    private final List<VideoEntry> mAllEntries = new AbstractList<VideoEntry>() {
+        @Override
+        public VideoEntry get(int index) {
+            if (mUnfiltered != null) {
+                return mUnfiltered.get(index);
+            }
+            return index < mEntries.size() ? mEntries.get(index)
+                    : mUnpaged.get(index - mEntries.size());
+        }
+
+        @Override
+        public int size() {
+            return mUnfiltered != null ? mUnfiltered.size() : mEntries.size() + mUnpaged.size();
+        }
+    };
+    private List<VideoEntry> mUnfiltered;
+    private volatile Set<String> mMatches;
+    private int mPageSize;
+    private EntryResolver mResolver;
+    private volatile int mPagedCount;
+
     public VideoListAdapter() {
         this(new ArrayList<VideoEntry>());
     }
 
     public VideoListAdapter(List<VideoEntry> entries) {
         super(entries);
+        setHasStableIds(true);
         notifyDataSetChanged();
     }
 
@@ -49,12 +97,399 @@ public class VideoListAdapter extends ClickableAdapter<VideoListAdapter.Holder,
     public void onBindViewHolder(Holder holder, int position) {
         super.onBindViewHolder(holder, position);
         VideoEntry entry = mEntries.get(position);
-        entry.loadImage(holder.imageView);
-        holder.nameView.setText(Html.fromHtml(entry.getTitle()));
-        holder.detailsView.setText(entry.getFormattedSubsInfo());
+        VideoRow row = entry.getRow();
+
+        // Rows prefetched for scrolling are bound too, so their folders are listed before they
+        // come into view
+        if (!entry.isResolved() && mResolver != null) {
+            mResolver.resolve(entry);
+        }
+        entry.loadThumbnail(holder.imageView);
+        holder.nameView.setText(row.title);
+        holder.detailsView.setText(row.details);
+    }
+
+    public void setEntryResolver(EntryResolver resolver) {
+        mResolver = resolver;
+    }
+
+    /**
+     * Shows the library a page at a time, the series after the last page are kept in sort order
+     * and their rows are only built once their page is shown
+     * @param pageSize number of series in a page
+     */
+    public void setPageSize(int pageSize) {
+        mPageSize = pageSize;
+        mPagedCount = pageSize;
+    }
+
+    /**
+     * @return whether there are series after the last page shown
+     */
+    public boolean hasMorePages() {
+        return !mUnpaged.isEmpty();
+    }
+
+    /**
+     * Shows the next page of series. Series loaded on demand are listed first, so a page is only
+     * listed once it is shown, then the rows are built in the background. Must be called on the
+     * main thread.
+     * @param executor builds the rows of the page
+     * @param applied called once the page is shown, may be null
+     */
+    public void showNextPage(final Executor executor, final Runnable applied) {
+        mPagedCount = mEntries.size() + mPageSize;
+        if (mResolver == null) {
+            submitEntries(mAllEntries, executor, applied);
+            return;
+        }
+        List<VideoEntry> page = new ArrayList<>(
+                mUnpaged.subList(0, Math.min(mPageSize, mUnpaged.size())));
+        mResolver.resolvePage(page, new Runnable() {
+            @Override
+            public void run() {
+                submitEntries(mAllEntries, executor, applied);
+            }
+        });
+    }
+
+    /**
+     * @return every series in sort order, whether it is shown, filtered out or waits for its page
+     */
+    public List<VideoEntry> getAllEntries() {
+        return new ArrayList<>(mAllEntries);
+    }
+
+    /**
+     * Shows the first page of the entries sorted, replacing what was shown. Must be called on the
+     * main thread.
+     * @param entries entries to show
+     */
+    public void showSorted(List<VideoEntry> entries) {
+        clear();
+        List<VideoEntry> sorted = new ArrayList<>(entries);
+        Collections.sort(sorted, VideoEntry.SortComparator);
+        int shown = mPageSize > 0 ? Math.min(mPageSize, sorted.size()) : sorted.size();
+        mEntries.addAll(sorted.subList(0, shown));
+        mUnpaged.addAll(sorted.subList(shown, sorted.size()));
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Series keep their id for as long as the adapter lives, so a series that was scanned again
+     * keeps its row
+     */
+    @Override
+    public long getItemId(int position) {
+        String name = mEntries.get(position).getName();
+        Long id = mIds.get(name);
+        if (id == null) {
+            id = (long) mIds.size();
+            mIds.put(name, id);
+        }
+        return id;
+    }
+
+    /**
+     * Updates the list to match the freshly scanned entries. The entries are sorted and compared
+     * in the background and only the rows that were removed, moved, changed or inserted are
+     * notified. Must be called on the main thread.
+     * @param entries all the entries of the library
+     * @param executor runs the sort and comparison
+     * @param applied called once the entries are shown, may be null
+     */
+    public void applyDifferences(List<VideoEntry> entries, Executor executor, Runnable applied) {
+        submitEntries(entries, executor, applied);
+    }
+
+    /**
+     * Sorts the shown entries again after their last used times changed, rows that move are
+     * animated without being bound again. Must be called on the main thread.
+     */
+    public void resort(Executor executor, Runnable applied) {
+        submitEntries(mAllEntries, executor, applied);
+    }
+
+    @Override
+    protected List<VideoEntry> prepareEntries(List<VideoEntry> entries) {
+        Collections.sort(entries, VideoEntry.SortComparator);
+        return entries;
+    }
+
+    @Override
+    protected List<VideoEntry> selectShown(List<VideoEntry> entries, int shownBefore) {
+        List<VideoEntry> shown;
+        Set<String> matches = mMatches;
+        if (matches != null) {
+            shown = new ArrayList<>();
+            for (VideoEntry entry : entries) {
+                if (matches.contains(entry.getName())) {
+                    shown.add(entry);
+                }
+            }
+        } else {
+            shown = entries.subList(0, mPageSize > 0
+                    ? Math.min(entries.size(), Math.max(shownBefore, mPagedCount))
+                    : entries.size());
+        }
+
+        // Only the rows of the pages that are shown are built
+        for (VideoEntry entry : shown) {
+            entry.getRow();
+        }
+        return shown;
+    }
+
+    @Override
+    protected boolean isSameItem(VideoEntry oldEntry, VideoEntry newEntry) {
+        return oldEntry.getName().equals(newEntry.getName());
+    }
+
+    @Override
+    protected boolean isSameContent(VideoEntry oldEntry, VideoEntry newEntry) {
+        return oldEntry.getPath().equals(newEntry.getPath()) && oldEntry.hasSameData(newEntry);
+    }
+
+    @Override
+    protected void onEntriesSubmitted(List<VideoEntry> oldEntries, List<VideoEntry> entries) {
+        // The submitted entries replace everything, while filtering they are the unfiltered
+        // list, otherwise the ones after the shown pages wait for their page
+        mUnpaged.clear();
+        if (mUnfiltered != null) {
+            mUnfiltered = new ArrayList<>(entries);
+        } else {
+            mUnpaged.addAll(entries.subList(mEntries.size(), entries.size()));
+        }
+    }
+
+    /**
+     * Shows only the entries that match. The entries shown are always in the order of the list
+     * when filtering started, so each change walks that list once and only notifies the ranges
+     * that were hidden or shown, without copying or sorting. Series added or removed while
+     * filtering go into that list directly. Pages that were not shown yet are searched too, when
+     * filtering stops only the pages shown before are shown again. Must be called on the main
+     * thread.
+     * @param matches names of the series to show, or null to show all the entries and stop
+     *                filtering
+     */
+    public void setFilter(Set<String> matches) {
+        beginChange();
+        if (mUnfiltered == null) {
+            if (matches == null) {
+                return;
+            }
+            mUnfiltered = getAllEntries();
+            mUnpaged.clear();
+        }
+        mMatches = matches;
+
+        // The shown entries are in the same order as the unfiltered list, walk them together
+        List<VideoEntry> shown = new ArrayList<>(mUnfiltered.size());
+        int pagedCount = mPageSize > 0 ? mPagedCount : mUnfiltered.size();
+        int current = 0;
+        int runStart = 0;
+        int runCount = 0;
+        boolean runInserted = false;
+        for (int i = 0; i < mUnfiltered.size(); i++) {
+            VideoEntry entry = mUnfiltered.get(i);
+            boolean wasShown = current < mEntries.size() && mEntries.get(current) == entry;
+            boolean show = matches != null ? matches.contains(entry.getName()) : i < pagedCount;
+            if (wasShown) {
+                current++;
+            }
+            if (wasShown == show) {
+                if (show) {
+                    shown.add(entry);
+                }
+                continue;
+            }
+
+            // Join the consecutive rows that are hidden or shown into one notification
+            int position = shown.size();
+            if (runCount > 0 && (runInserted != show || position != runStart
+                    + (runInserted ? runCount : 0))) {
+                notifyRun(runStart, runCount, runInserted);
+                runCount = 0;
+            }
+            if (runCount == 0) {
+                runStart = position;
+                runInserted = show;
+            }
+            runCount++;
+            if (show) {
+                shown.add(entry);
+            }
+        }
+        if (runCount > 0) {
+            notifyRun(runStart, runCount, runInserted);
+        }
+        mEntries.clear();
+        mEntries.addAll(shown);
+        if (matches == null) {
+            // The series after the pages shown wait for their page again
+            mUnpaged.addAll(mUnfiltered.subList(Math.min(pagedCount, mUnfiltered.size()),
+                    mUnfiltered.size()));
+            mUnfiltered = null;
+        }
+    }
+
+    public boolean isFiltered() {
+        return mUnfiltered != null;
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        mUnpaged.clear();
+        mUnfiltered = null;
+        mMatches = null;
+        mPagedCount = mPageSize;
+    }
+
+    private void notifyRun(int start, int count, boolean inserted) {
+        if (inserted) {
+            notifyItemRangeInserted(start, count);
+        } else {
+            notifyItemRangeRemoved(start, count);
+        }
+    }
+
+    /**
+     * @return position of the shown entry with the path or -1
+     */
+    public int indexOfPath(String path) {
+        return indexOfPath(mEntries, path);
+    }
+
+    /**
+     * @return whether an entry with the path is shown, filtered out or waits for its page
+     */
+    public boolean containsPath(String path) {
+        return indexOfPath(mAllEntries, path) >= 0;
+    }
+
+    /**
+     * Removes the entry with the path whether it is shown, filtered out or waits for its page.
+     * Must be called on the main thread.
+     * @return position of the removed row or -1 if it was not shown
+     */
+    public int removePath(String path) {
+        beginChange();
+        if (mUnfiltered != null) {
+            int unfilteredPosition = indexOfPath(mUnfiltered, path);
+            if (unfilteredPosition >= 0) {
+                mUnfiltered.remove(unfilteredPosition);
+            }
+        }
+        int position = indexOfPath(mUnpaged, path);
+        if (position >= 0) {
+            mUnpaged.remove(position);
+            return -1;
+        }
+        position = indexOfPath(mEntries, path);
+        if (position >= 0) {
+            mEntries.remove(position);
+        }
+        return position;
+    }
+
+    /**
+     * Swaps in the entry of a series that was listed again, wherever the series is kept. Must be
+     * called on the main thread.
+     * @param entry the entry that replaces the one with the same name
+     * @return position of the row to rebind or -1 if the series is not shown
+     */
+    public int replaceEntry(VideoEntry entry) {
+        beginChange();
+        replaceByName(mUnpaged, entry);
+        if (mUnfiltered != null) {
+            replaceByName(mUnfiltered, entry);
+        }
+        return replaceByName(mEntries, entry);
+    }
+
+    private static int replaceByName(List<VideoEntry> entries, VideoEntry entry) {
+        for (int i = 0; i < entries.size(); i++) {
+            if (entries.get(i).getName().equals(entry.getName())) {
+                entries.set(i, entry);
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOfPath(List<VideoEntry> entries, String path) {
+        for (int i = 0; i < entries.size(); i++) {
+            if (entries.get(i).getPath().equals(path)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Inserts the entries into their sorted positions of the already sorted list and notifies
+     * the inserted ranges. Entries that sort after the last page shown wait for their page.
+     * While filtering the entries go into the unfiltered list and only the ones that match are
+     * shown. Must be called on the main thread.
+     * @param entries entries to insert
+     */
+    public void insertSorted(List<VideoEntry> entries) {
+        beginChange();
+        List<VideoEntry> batch = new ArrayList<>(entries);
+        Collections.sort(batch, VideoEntry.SortComparator);
+        if (mUnfiltered != null) {
+            insertFiltered(batch);
+            return;
+        }
+
+        // The batch is sorted so each insert lands after the last, join adjacent inserts
+        int rangeStart = -1;
+        int rangeCount = 0;
+        int from = 0;
+        for (VideoEntry entry : batch) {
+            int position = Collections.binarySearch(
+                    mEntries.subList(from, mEntries.size()), entry, VideoEntry.SortComparator);
+            position = from + (position < 0 ? -position - 1 : position);
+            if (position == mEntries.size() && mPageSize > 0
+                    && (!mUnpaged.isEmpty() || position >= mPagedCount)) {
+                int unpagedPosition = Collections.binarySearch(mUnpaged, entry,
+                        VideoEntry.SortComparator);
+                mUnpaged.add(unpagedPosition < 0 ? -unpagedPosition - 1 : unpagedPosition,
+                        entry);
+                continue;
+            }
+            mEntries.add(position, entry);
+            if (rangeCount > 0 && position == rangeStart + rangeCount) {
+                rangeCount++;
+            } else {
+                if (rangeCount > 0) {
+                    notifyItemRangeInserted(rangeStart, rangeCount);
+                }
+                rangeStart = position;
+                rangeCount = 1;
+            }
+            from = position + 1;
+        }
+        if (rangeCount > 0) {
+            notifyItemRangeInserted(rangeStart, rangeCount);
+        }
+    }
+
+    private void insertFiltered(List<VideoEntry> batch) {
+        Set<String> matches = mMatches;
+        for (VideoEntry entry : batch) {
+            mUnfiltered.add(insertionPoint(mUnfiltered, entry), entry);
+            if (matches != null && matches.contains(entry.getName())) {
+                int position = insertionPoint(mEntries, entry);
+                mEntries.add(position, entry);
+                notifyItemInserted(position);
+            }
+        }
     }
 
-    public void sort() {
-        Collections.sort(mEntries, VideoEntry.SortComparator);
+    private static int insertionPoint(List<VideoEntry> entries, VideoEntry entry) {
+        int position = Collections.binarySearch(entries, entry, VideoEntry.SortComparator);
+        return position < 0 ? -position - 1 : position;
     }
-}
\ No newline at end of file
+}
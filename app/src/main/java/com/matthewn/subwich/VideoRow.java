@@ -0,0 +1,18 @@
+package com.matthewn.subwich;
+
+import android.text.Html;
+import android.text.Spanned;
+
+/**
+ * What a row of the library shows for a series, built once in the background whenever the
+ * episodes of the series change so binding a row only sets text
+ */
+public class VideoRow {
+    public final Spanned title;
+    public final String details;
+
+    VideoRow(VideoEntry entry) {
+        title = Html.fromHtml(entry.getTitle());
+        details = entry.getFormattedSubsInfo();
+    }
+}
@@ -1,15 +1,22 @@
 package com.matthewn.subwich.ui;
 
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.RecyclerView;
 import android.view.View;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 public abstract class ClickableAdapter<VH extends RecyclerView.ViewHolder, Type> extends RecyclerView.Adapter<VH>
         implements RecyclerViewAdapterListener {
     protected List<Type> mEntries;
     protected RecyclerViewAdapterListener mAdapterListener;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private int mVersion;
 
     public ClickableAdapter(List<Type> entries) {
         mEntries = entries;
@@ -33,15 +40,125 @@ public abstract class ClickableAdapter<VH extends RecyclerView.ViewHolder, Type>
         }
     }
 
+    /**
+     * Builds the new entries for {@link #submitEntries}, called on the executor
+     * @param entries copy of the entries that were submitted
+     * @return the entries to show
+     */
+    protected List<Type> prepareEntries(List<Type> entries) {
+        return entries;
+    }
+
+    /**
+     * Picks which of the prepared entries are shown, in their order, all of them are handed to
+     * {@link #onEntriesSubmitted}. Called on the executor.
+     * @param entries the prepared entries
+     * @param shownBefore number of entries shown when they were submitted
+     * @return the entries to show
+     */
+    protected List<Type> selectShown(List<Type> entries, int shownBefore) {
+        return entries;
+    }
+
+    /**
+     * @return whether both are the same row, rows with the same stable id must be the same
+     */
+    protected abstract boolean isSameItem(Type oldEntry, Type newEntry);
+
+    /**
+     * @return whether the row shows the same data so it does not need to be bound again
+     */
+    protected abstract boolean isSameContent(Type oldEntry, Type newEntry);
+
+    /**
+     * Called on the main thread after submitted entries replaced the shown entries
+     * @param oldEntries the entries shown before
+     * @param entries all the prepared entries including the ones that are not shown
+     */
+    protected void onEntriesSubmitted(List<Type> oldEntries, List<Type> entries) {
+    }
+
+    /**
+     * Replaces the entries, the differences are found on the executor and only the rows that
+     * moved, changed, were inserted or removed are notified. If the shown entries change before
+     * the differences are found, the entries are read again and compared with what is shown
+     * then. Must be called on the main thread.
+     * @param entries the new entries, read on the main thread
+     * @param executor runs the comparison
+     * @param applied called on the main thread once the entries are shown, may be null
+     */
+    public void submitEntries(final List<Type> entries, final Executor executor,
+                              final Runnable applied) {
+        checkMainThread();
+        final int version = mVersion;
+        final List<Type> oldEntries = new ArrayList<>(mEntries);
+        final List<Type> submitted = new ArrayList<>(entries);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<Type> prepared = prepareEntries(submitted);
+                final List<Type> newEntries = selectShown(prepared, oldEntries.size());
+                final DiffUtil.DiffResult result = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+                    @Override
+                    public int getOldListSize() {
+                        return oldEntries.size();
+                    }
+
+                    @Override
+                    public int getNewListSize() {
+                        return newEntries.size();
+                    }
+
+                    @Override
+                    public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                        return isSameItem(oldEntries.get(oldPosition),
+                                newEntries.get(newPosition));
+                    }
+
+                    @Override
+                    public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                        return isSameContent(oldEntries.get(oldPosition),
+                                newEntries.get(newPosition));
+                    }
+                });
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (version != mVersion) {
+                            submitEntries(entries, executor, applied);
+                            return;
+                        }
+                        beginChange();
+                        mEntries.clear();
+                        mEntries.addAll(newEntries);
+                        result.dispatchUpdatesTo(ClickableAdapter.this);
+                        onEntriesSubmitted(oldEntries, prepared);
+                        if (applied != null) {
+                            applied.run();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
     public void add(Type entry) {
+        beginChange();
         mEntries.add(entry);
     }
 
     public void addAll(Collection<Type> entries) {
+        beginChange();
         mEntries.addAll(entries);
     }
 
+    public Type remove(int i) {
+        beginChange();
+        return mEntries.remove(i);
+    }
+
     public void clear() {
+        beginChange();
         mEntries.clear();
     }
 
@@ -65,6 +182,24 @@ public abstract class ClickableAdapter<VH extends RecyclerView.ViewHolder, Type>
         ((ViewHolder) holder).setOnClickListener(this);
     }
 
+    /**
+     * Must be called before the entries are changed so submitted entries that are still being
+     * compared are compared again
+     */
+    protected void beginChange() {
+        checkMainThread();
+        mVersion++;
+    }
+
+    /**
+     * The entries are read while binding so they must only be changed on the main thread
+     */
+    protected static void checkMainThread() {
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            throw new IllegalStateException("Adapter entries must be changed on the main thread");
+        }
+    }
+
     @Override
     public int getItemCount() {
         return mEntries.size();
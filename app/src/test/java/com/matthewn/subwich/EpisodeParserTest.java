@@ -0,0 +1,151 @@
+package com.matthewn.subwich;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class EpisodeParserTest {
+    private EpisodeParser mParser;
+
+    @Before
+    public void setUp() {
+        mParser = new EpisodeParser();
+    }
+
+    private Episode parse(String fileName) {
+        return mParser.parse(fileName, fileName.length() - 4, fileName);
+    }
+
+    private static void assertEpisode(Episode episode, int season, int number, int sub,
+                                      int endNumber) {
+        assertNotNull(episode);
+        assertEquals(season, episode.getSeason());
+        assertEquals(number, episode.getNumber());
+        assertEquals(sub, episode.getSub());
+        assertEquals(endNumber, episode.getEndNumber());
+    }
+
+    @Test
+    public void wholeName_isEpisode() {
+        assertEpisode(parse("3.srt"), 0, 3, 0, 3);
+        assertEpisode(parse("07.srt"), 0, 7, 0, 7);
+    }
+
+    @Test
+    public void wholeName_special() {
+        Episode episode = parse("12.5.srt");
+        assertEpisode(episode, 0, 12, 50, 12);
+        assertEquals("12.5", episode.getLabel());
+    }
+
+    @Test
+    public void wholeName_specialsWithLeadingZero_areDistinct() {
+        Episode half = parse("12.5.srt");
+        Episode twentieth = parse("12.05.srt");
+        assertEpisode(twentieth, 0, 12, 5, 12);
+        assertEquals("12.05", twentieth.getLabel());
+        assertTrue(twentieth.compareTo(half) < 0);
+        assertEpisode(parse("12.25.srt"), 0, 12, 25, 12);
+        assertEquals("12.25", parse("12.25.srt").getLabel());
+    }
+
+    @Test
+    public void wholeName_version() {
+        assertEpisode(parse("03v2.srt"), 0, 3, 0, 3);
+    }
+
+    @Test
+    public void wholeName_doubleEpisode() {
+        Episode episode = parse("01-02.srt");
+        assertEpisode(episode, 0, 1, 0, 2);
+        assertEquals("1-2", episode.getLabel());
+    }
+
+    @Test
+    public void wholeName_longNumber() {
+        assertEpisode(parse("12345.srt"), 0, 12345, 0, 12345);
+        assertNull(parse("99999999999.srt"));
+    }
+
+    @Test
+    public void wholeName_rangeNotGoingUp_isFirstEpisode() {
+        assertEpisode(parse("02-01.srt"), 0, 2, 0, 2);
+    }
+
+    @Test
+    public void seasonEpisode() {
+        Episode episode = parse("Show.Name.S01E07.srt");
+        assertEpisode(episode, 1, 7, 0, 7);
+        assertEquals(10, mParser.getStart());
+    }
+
+    @Test
+    public void seasonEpisode_separateWords() {
+        Episode episode = parse("Show S01 E07.srt");
+        assertEpisode(episode, 1, 7, 0, 7);
+        assertEquals(5, mParser.getStart());
+        assertEpisode(parse("Show.S02.E03.srt"), 2, 3, 0, 3);
+    }
+
+    @Test
+    public void seasonEpisode_doubleEpisode() {
+        assertEpisode(parse("Show.S01E01-E02.srt"), 1, 1, 0, 2);
+    }
+
+    @Test
+    public void episode_resolutionIsNotSpecial() {
+        assertEpisode(parse("Show.E03.720p.srt"), 0, 3, 0, 3);
+    }
+
+    @Test
+    public void episode_spelledOut() {
+        assertEpisode(parse("Show Ep 4.srt"), 0, 4, 0, 4);
+        assertEpisode(parse("Show Episode 05.srt"), 0, 5, 0, 5);
+    }
+
+    @Test
+    public void episode_afterDash() {
+        Episode episode = parse("Show Name - 07.srt");
+        assertEpisode(episode, 0, 7, 0, 7);
+        assertEquals(10, mParser.getStart());
+    }
+
+    @Test
+    public void noEpisode_isNull() {
+        assertNull(parse("Show Name.srt"));
+        assertNull(parse("Season.srt"));
+        assertNull(parse("Show-Name.srt"));
+        assertNull(parse(".srt"));
+    }
+
+    @Test
+    public void episodeInsideWord_isIgnored() {
+        assertNull(parse("Fake3.srt"));
+        assertNull(parse("Show.S01.srt"));
+    }
+
+    @Test
+    public void source_isKept() {
+        Episode episode = mParser.parse("1", 1, "Season 1.zip/1.srt", null);
+        assertEquals("Season 1.zip/1.srt", episode.getSource());
+        assertTrue(episode.isArchived());
+        assertNull(episode.getDocumentId());
+    }
+
+    @Test
+    public void modifiedTime_isPartOfEquality() {
+        Episode listed = mParser.parse("1", 1, "1.srt", "doc:1", 1000);
+        assertEquals(listed, mParser.parse("1", 1, "1.srt", "doc:1", 1000));
+        assertNotEquals(listed, mParser.parse("1", 1, "1.srt", "doc:1", 2000));
+    }
+
+    @Test
+    public void parseSeason() {
+        assertEquals(2, mParser.parseSeason("Season 2", 8));
+        assertEquals(2, mParser.parseSeason("Show S02", 8));
+        assertEquals(11, mParser.parseSeason("season_11", 9));
+        assertEquals(0, mParser.parseSeason("Subs", 4));
+        assertEquals(0, mParser.parseSeason("Show S02E01", 11));
+    }
+}
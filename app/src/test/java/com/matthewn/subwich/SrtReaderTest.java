@@ -0,0 +1,67 @@
+package com.matthewn.subwich;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class SrtReaderTest {
+    private static SrtReader reader(String subtitle) throws IOException {
+        return new SrtReader(new ByteArrayInputStream(subtitle.getBytes("UTF-8")));
+    }
+
+    @Test
+    public void readsCues() throws IOException {
+        SrtReader reader = reader("1\n00:00:01,000 --> 00:00:02,000\nHello\n\n"
+                + "2\n01:02:03,456 --> 01:02:04,000\nSecond\n");
+        assertTrue(reader.next());
+        assertEquals(1000, reader.getStart());
+        assertEquals("Hello", reader.getText());
+        assertTrue(reader.next());
+        assertEquals(((1 * 60 + 2) * 60 + 3) * 1000 + 456, reader.getStart());
+        assertEquals("Second", reader.getText());
+        assertFalse(reader.next());
+        reader.close();
+    }
+
+    @Test
+    public void joinsLines() throws IOException {
+        SrtReader reader = reader("1\r\n00:00:01,000 --> 00:00:02,000\r\nFirst line\r\n"
+                + "second line\r\n\r\n");
+        assertTrue(reader.next());
+        assertEquals("First line second line", reader.getText());
+    }
+
+    @Test
+    public void stripsTags() throws IOException {
+        SrtReader reader = reader("1\n00:00:01,000 --> 00:00:02,000\n{\\an8}<i>Quiet</i> now\n"
+                + "<b></b>\n\n");
+        assertTrue(reader.next());
+        assertEquals("Quiet now", reader.getText());
+    }
+
+    @Test
+    public void skipsByteOrderMark() throws IOException {
+        SrtReader reader = reader("\uFEFF00:00:05.500 --> 00:00:06,000\nText\n");
+        assertTrue(reader.next());
+        assertEquals(5500, reader.getStart());
+    }
+
+    @Test
+    public void skipsBrokenAndEmptyCues() throws IOException {
+        SrtReader reader = reader("1\nnot a time --> 00:00:02,000\nLost\n\n"
+                + "2\n00:00:03,000 --> 00:00:04,000\n\n"
+                + "3\n00:00:05,000 --> 00:00:06,000\nKept\n");
+        assertTrue(reader.next());
+        assertEquals(5000, reader.getStart());
+        assertEquals("Kept", reader.getText());
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void emptySubtitle_hasNoCues() throws IOException {
+        assertFalse(reader("").next());
+    }
+}